@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -278,12 +280,80 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    // Zql不支持LIMIT：解析前从语句末尾去掉，记下它的数目给语句的计划用
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\S+)\\s*$", Pattern.CASE_INSENSITIVE);
+    private int limit = -1;
+
+    /**
+     * Zql does not parse LIMIT clauses, so a "LIMIT n" at the end of a
+     * statement (outside quoted text) is cut from it before it is handed to
+     * Zql, and n is kept until the plan of the statement is built.
+     *
+     * @return the statement without its LIMIT clause
+     * @throws simpledb.ParsingException if n is not a non-negative integer
+     */
+    String stripLimit(String statement) throws simpledb.ParsingException {
+        limit = -1;
+        int end = quotedUntil(statement, statement.length(), true);
+        Matcher m = LIMIT_CLAUSE.matcher(statement.substring(0, end));
+        if (!m.find() || quotedUntil(statement, m.start(), false) < 0) {
+            return statement;
+        }
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT: " + m.group(1));
+        }
+        if (limit < 0) {
+            throw new simpledb.ParsingException("LIMIT must not be negative: " + limit);
+        }
+        return statement.substring(0, m.start()) + statement.substring(end);
+    }
+
+    /**
+     * Scan the first len characters of a statement, skipping text between
+     * quotes.
+     *
+     * @param stopAtSemicolon stop at the first ';' outside quotes
+     * @return the index of that ';' (or len if there is none) when
+     *         stopAtSemicolon is set; otherwise len, or -1 if position len
+     *         is inside quoted text
+     */
+    private static int quotedUntil(String s, int len, boolean stopAtSemicolon) {
+        char quote = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';' && stopAtSemicolon) {
+                return i;
+            }
+        }
+        return quote != 0 && !stopAtSemicolon ? -1 : len;
+    }
+
+    /**
+     * Add the LIMIT clause cut from the current statement, if any, to its plan.
+     */
+    private void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0) {
+            lp.addLimit(limit);
+            limit = -1;
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -383,6 +453,7 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            applyLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -465,12 +536,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,8 +568,21 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                statement.write(buf, 0, n);
+            }
+            String stripped = stripLimit(statement.toString(StandardCharsets.UTF_8.name()));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(stripped.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery
+                    || (s instanceof ZInsert && ((ZInsert) s).getQuery() != null))) {
+                limit = -1;
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on SELECT and INSERT ... SELECT");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -567,7 +653,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -46,6 +46,32 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public int getMinLen() {
+            return 2;
+        }
+
+        @Override
+        public int getVariableLen(Field f) {
+            return ((StringField) f).getVariableLen();
+        }
+
+        @Override
+        public void serializeVariable(Field f, DataOutputStream dos) throws IOException {
+            ((StringField) f).serializeVariable(dos);
+        }
+
+        @Override
+        public Field parseVariable(DataInputStream dis) throws ParseException {
+            try {
+                byte[] bs = new byte[dis.readUnsignedShort()];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +90,41 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * The variable-length format is used by slotted pages, where a field only
+   * takes the bytes it needs; fixed-size types are stored as usual.
+   *
+   * @return the smallest number of bytes a field of this type takes in the
+   *   variable-length format.
+   * @see simpledb.storage.SlottedPage
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes the specified field of this type takes in
+   *   the variable-length format.
+   */
+    public int getVariableLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write the specified field of this type in the variable-length format.
+   */
+    public void serializeVariable(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a Field object of this type read in the variable-length format
+   *   from the specified DataInputStream.
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public Field parseVariable(DataInputStream dis) throws ParseException {
+        return parse(dis);
+    }
+
 }
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -65,16 +66,18 @@ public class Aggregate extends Operator {
             }
             //aggregator = new IntegerAggregator(gfield, child.getTupleDesc().getFieldType(gfield), afield, aop);
         }
-        while (true) {
-            try {
-                if (!child.hasNext()) break;
-                Tuple tuple = child.next();
-                aggregator.mergeTupleIntoGroup(tuple);
-            } catch (DbException e) {
-                e.printStackTrace();
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
+        //一次从子节点取一批元组
+        TupleBatch batch = new TupleBatch();
+        try {
+            while (child.nextBatch(batch) > 0) {
+                for (int i = 0; i < batch.size(); i++) {
+                    aggregator.mergeTupleIntoGroup(batch.get(i));
+                }
             }
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
         }
         opIterator = aggregator.iterator();
     }
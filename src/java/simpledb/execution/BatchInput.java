@@ -0,0 +1,55 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * The input of an operator from one of its children, read a batch at a time
+ * with OpIterator.nextBatch and handed out a tuple at a time. Operators that
+ * read their children through it pay for one call to the child per batch,
+ * whether they are themselves read with next or with nextBatch.
+ */
+class BatchInput implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final TupleBatch batch = new TupleBatch();
+    private int pos = 0;
+
+    BatchInput(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the next tuple of the child, or null if there are no more
+     */
+    Tuple next() throws DbException, TransactionAbortedException {
+        if (pos == batch.size()) {
+            pos = 0;
+            if (child.nextBatch(batch) == 0) {
+                return null;
+            }
+        }
+        return batch.get(pos++);
+    }
+
+    /**
+     * Rewind the child and drop the tuples read ahead from it.
+     */
+    void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        clear();
+    }
+
+    /**
+     * Drop the tuples read ahead from the child, e.g. when it is closed.
+     */
+    void clear() {
+        batch.clear();
+        pos = 0;
+    }
+}
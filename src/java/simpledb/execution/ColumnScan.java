@@ -0,0 +1,118 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnScan is a sequential scan that only returns some of the columns of a
+ * table. On a ColumnFile it only reads the pages of those columns; on any
+ * other table it reads the whole tuples like SeqScan and projects them.
+ *
+ * @see ColumnFile
+ */
+public class ColumnScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId transactionId;
+    private final int tableId;
+    private final String tableAlias;
+    private final int[] columns;
+    private final TupleDesc tupleDesc;
+    private final DbFileIterator dbFileIterator;
+    private final boolean projected;  // 文件迭代器是否已经只返回这些列
+
+    /**
+     * Creates a scan over the given columns of the specified table as a part
+     * of the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, as in SeqScan
+     * @param columns    the indexes of the columns to return, in the order
+     *                   they should appear in the tuples
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this.transactionId = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        Type[] typeAr = new Type[columns.length];
+        String[] fieldAr = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            typeAr[i] = td.getFieldType(columns[i]);
+            fieldAr[i] = tableAlias + "." + td.getFieldName(columns[i]);
+        }
+        this.tupleDesc = new TupleDesc(typeAr, fieldAr);
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        this.projected = file instanceof ColumnFile;
+        if (projected) {
+            dbFileIterator = ((ColumnFile) file).iterator(transactionId, this.columns);
+        } else {
+            dbFileIterator = file.iterator(transactionId);
+        }
+    }
+
+    /**
+     * @return the name of the table the operator scans in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        dbFileIterator.open();
+    }
+
+    /**
+     * @return the TupleDesc of the scanned columns, with field names
+     * prefixed with the table alias like SeqScan's
+     */
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return dbFileIterator.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        Tuple t = dbFileIterator.next();
+        if (projected) {
+            // ColumnFile的迭代器每行新建一个只有这些列的元组，直接使用
+            t.resetTupleDesc(tupleDesc);
+            return t;
+        }
+        Tuple res = new Tuple(tupleDesc);
+        for (int i = 0; i < columns.length; i++) {
+            res.setField(i, t.getField(columns[i]));
+        }
+        res.setRecordId(t.getRecordId());
+        return res;
+    }
+
+    public void close() {
+        dbFileIterator.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        dbFileIterator.rewind();
+    }
+}
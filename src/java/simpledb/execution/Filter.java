@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,6 +17,7 @@ public class Filter extends Operator {
     private final Predicate p;
     private OpIterator child;
     private OpIterator[] children=null;
+    private BatchInput input;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -30,6 +32,7 @@ public class Filter extends Operator {
         // some code goes here
         this.p=p;
         this.child=child;
+        this.input=new BatchInput(child);
     }
 
     public Predicate getPredicate() {
@@ -49,17 +52,19 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         this.child.open();
+        input.clear();
     }
 
     public void close() {
         // some code goes here
         super.close();
         this.child.close();
+        input.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.child.rewind();
+        input.rewind();
     }
 
     /**
@@ -74,8 +79,8 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        while (child.hasNext()){
-            Tuple next = child.next();
+        Tuple next;
+        while ((next = input.next()) != null){
             if(p.filter(next)){
                 return next;
             }
@@ -83,6 +88,16 @@ public class Filter extends Operator {
         return null;
     }
 
+    @Override
+    protected void fetchNextBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        Tuple next;
+        while (!batch.isFull() && (next = input.next()) != null) {
+            if (p.filter(next)) {
+                batch.add(next);
+            }
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -94,6 +109,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child=children[0];
+        input=new BatchInput(child);
     }
 
 }
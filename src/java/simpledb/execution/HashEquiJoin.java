@@ -2,19 +2,33 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join: it builds hash tables on child1 and
+ * probes them with the tuples of child2 as they are read. When child1 has
+ * more tuples than the memory budget, both inputs are split into partitions
+ * by the hash of their join fields; the partitions that do not fit in
+ * memory are written to temporary files while the inputs are read, and
+ * joined one at a time afterwards. Each input is thus read once, and the
+ * spilled part written and read once more; partitions still too large for
+ * memory are split again.
+ *
+ * @see #setMemoryBudget
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
     private OpIterator child1, child2;
+    private BatchInput build, probe;  // child1和child2，按批读取
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
@@ -34,6 +48,8 @@ public class HashEquiJoin extends Operator {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.build = new BatchInput(child1);
+        this.probe = new BatchInput(child2);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -55,28 +71,266 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    /**
+     * Default number of tuples of child1 held in memory
+     */
     public final static int MAP_SIZE = 20000;
+    /**
+     * Number of partitions the inputs are split into when child1 does not
+     * fit in memory
+     */
+    static final int NUM_PARTITIONS = 32;
+    /**
+     * Largest number of partitions a spilled partition is split into
+     */
+    static final int MAX_FANOUT = 128;
+    // 分区嵌套的最大层数，更深时（例如大量重复的键）按块处理
+    private static final int MAX_LEVEL = 3;
+
+    /**
+     * A partition of both inputs spilled to disk, joined after child2 has
+     * been read.
+     */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+        }
+    }
+
+    private int memoryBudget = MAP_SIZE;
+    // 读child2时每个分区在内存中的哈希表，溢出的分区写到文件中
+    private transient TupleHashTable[] tables;
+    private transient SpillFile[] buildFiles;
+    private transient SpillFile[] probeFiles;
+    private transient int inMemory;
+    private transient boolean probing;  // 是否还在读child2
+    private transient Deque<Partition> pending;
+    private transient Partition current;
+    private transient TupleHashTable chunk;  // 当前溢出分区载入内存的部分
+    private transient int spilledPartitions;
+
+    /**
+     * Set the number of tuples of child1 the join holds in memory. When
+     * child1 has more, both inputs are partitioned by the hash of their join
+     * fields and the partitions that do not fit are written to temporary
+     * files, then joined one at a time. Takes effect on the next open or
+     * rewind.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.memoryBudget = tuples;
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions written to disk since the join was
+     * last opened or rewound, 0 if child1 fit in memory
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the partition of a key among fanout (a power of two)
+     * partitions at the given level; each level uses other bits of the hash
+     */
+    private static int partitionOf(Field key, int level, int fanout) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 13;
+        return h & (fanout - 1);
+    }
+
+    /**
+     * Read child1 into the hash tables of its partitions. Whenever there are
+     * more tuples in memory than the budget, the largest partition still in
+     * memory is written to disk, and so are all its tuples that follow.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        closePartitions();
+        tables = new TupleHashTable[NUM_PARTITIONS];
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            tables[p] = newTable();
+        }
+        buildFiles = new SpillFile[NUM_PARTITIONS];
+        probeFiles = new SpillFile[NUM_PARTITIONS];
+        inMemory = 0;
+        spilledPartitions = 0;
+        while ((t1 = build.next()) != null) {
+            Field key = t1.getField(pred.getField1());
+            int p = partitionOf(key, 0, NUM_PARTITIONS);
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t1);
+                continue;
+            }
+            tables[p].add(t1);
+            if (++inMemory > memoryBudget) {
+                spillLargest();
+            }
+        }
+        probing = true;
+    }
+
+    private void spillLargest() throws DbException {
+        int largest = -1;
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            if (buildFiles[p] == null && (largest < 0 || tables[p].size() > tables[largest].size())) {
+                largest = p;
+            }
+        }
+        SpillFile f = new SpillFile(child1.getTupleDesc());
+        TupleHashTable table = tables[largest];
+        for (int e = 0; e < table.size(); e++) {
+            f.add(table.row(e));
+        }
+        inMemory -= table.size();
+        tables[largest] = null;
+        buildFiles[largest] = f;
+        probeFiles[largest] = new SpillFile(child2.getTupleDesc());
+        spilledPartitions++;
+    }
+
+    /**
+     * Split a spilled partition that does not fit in memory into smaller
+     * ones, using the next level of the hash.
+     */
+    private void split(Partition part) throws DbException {
+        int fanout = 2;
+        while (fanout < MAX_FANOUT && (long) fanout * memoryBudget < part.build.size() * 5L / 4) {
+            fanout *= 2;
+        }
+        int level = part.level + 1;
+        SpillFile[] builds = new SpillFile[fanout];
+        SpillFile[] probes = new SpillFile[fanout];
+        for (int p = 0; p < fanout; p++) {
+            builds[p] = new SpillFile(child1.getTupleDesc());
+            probes[p] = new SpillFile(child2.getTupleDesc());
+        }
+        part.build.rewind();
+        Tuple t;
+        while ((t = part.build.readNext()) != null) {
+            builds[partitionOf(t.getField(pred.getField1()), level, fanout)].add(t);
+        }
+        part.probe.rewind();
+        while ((t = part.probe.readNext()) != null) {
+            probes[partitionOf(t.getField(pred.getField2()), level, fanout)].add(t);
+        }
+        part.close();
+        for (int p = 0; p < fanout; p++) {
+            pending.addFirst(new Partition(builds[p], probes[p], level));
+        }
+        spilledPartitions += fanout;
+    }
+
+    /**
+     * Load the next part of the build side of the current partition, at
+     * most the memory budget, into chunk.
+     *
+     * @return false if the build side of the partition is done
+     */
+    private boolean loadChunk() throws DbException {
+        chunk.clear();
+        int n = 0;
+        Tuple t;
+        while (n < memoryBudget && (t = current.build.readNext()) != null) {
+            chunk.add(t);
+            n++;
+        }
+        return n > 0;
+    }
+
+    /**
+     * Move on to the next part of the current spilled partition, or to the
+     * next spilled partition, and start reading its probe side again.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException {
+        if (current != null && loadChunk()) {
+            current.probe.rewind();
+            return true;
+        }
+        while (true) {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = pending.removeFirst();
+            if (current.build.size() == 0 || current.probe.size() == 0) {
+                continue;
+            }
+            if (current.build.size() > memoryBudget && current.level < MAX_LEVEL) {
+                Partition part = current;
+                current = null;
+                split(part);
+                continue;
+            }
+            current.build.rewind();
+            if (loadChunk()) {
+                current.probe.rewind();
                 return true;
+            }
         }
-        return cnt > 0;
+    }
+
+    private TupleHashTable newTable() {
+        return new TupleHashTable(pred.getField1(), child1.getTupleDesc().getFieldType(pred.getField1()));
+    }
 
+    private void closePartitions() {
+        if (buildFiles != null) {
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (buildFiles[p] != null) {
+                    buildFiles[p].close();
+                    probeFiles[p].close();
+                }
+            }
+        }
+        if (pending != null) {
+            for (Partition part : pending) {
+                part.close();
+            }
+        }
+        if (current != null) {
+            current.close();
+        }
+        tables = null;
+        buildFiles = null;
+        probeFiles = null;
+        pending = new ArrayDeque<>();
+        current = null;
+        chunk = newTable();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build.clear();
+        probe.clear();
+        match = -1;
+        build();
         super.open();
     }
 
@@ -86,16 +340,27 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match=-1;
+        closePartitions();
+        build.clear();
+        probe.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        match = -1;
+        probe.rewind();
+        if (spilledPartitions == 0 && tables != null) {
+            //child1全在内存中，只需重新读child2
+            probing = true;
+            return;
+        }
+        build.rewind();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    // 当前child2元组在哈希表中的下一个匹配条目，没有则为-1
+    private transient TupleHashTable matchTable;
+    private transient int match = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -116,48 +381,93 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+        t1 = matchTable.row(match);
+        match = matchTable.next(match);
 
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (true) {
+            if (match != -1) {
+                return processList();
+            }
+            if (!advance()) {
+                return null;
+            }
         }
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    @Override
+    protected void fetchNextBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        while (!batch.isFull()) {
+            if (match != -1) {
+                batch.add(processList());
+            } else if (!advance()) {
+                return;
+            }
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Move on to the next tuple of child2 that has matches: first those of
+     * the partitions in memory while child2 is read, writing the others to
+     * the files of their partitions, then those of the spilled partitions.
+     *
+     * @return false if the join is finished
+     */
+    private boolean advance() throws TransactionAbortedException, DbException {
+        while (true) {
+            Tuple t;
+            TupleHashTable table;
+            if (probing) {
+                t = probe.next();
+                if (t == null) {
+                    // child2 is done: join the spilled partitions
+                    probing = false;
+                    for (int p = 0; p < NUM_PARTITIONS; p++) {
+                        if (buildFiles[p] != null) {
+                            pending.addLast(new Partition(buildFiles[p], probeFiles[p], 0));
+                            buildFiles[p] = null;
+                            probeFiles[p] = null;
+                            //溢出的分区要载入内存，先释放内存中的分区
+                            tables = null;
+                        }
+                    }
+                    if (!nextPartition()) {
+                        return false;
+                    }
+                    continue;
+                }
+                int p = partitionOf(t.getField(pred.getField2()), 0, NUM_PARTITIONS);
+                if (probeFiles[p] != null) {
+                    probeFiles[p].add(t);
+                    continue;
+                }
+                table = tables[p];
+            } else {
+                if (current == null) {
+                    return false;
+                }
+                t = current.probe.readNext();
+                if (t == null) {
+                    if (!nextPartition()) {
+                        return false;
+                    }
+                    continue;
+                }
+                table = chunk;
+            }
+            int e = table.find(t.getField(pred.getField2()));
+            if (e != -1) {
+                t2 = t;
+                matchTable = table;
+                match = e;
+                return true;
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -169,6 +479,8 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.build = new BatchInput(child1);
+        this.probe = new BatchInput(child2);
     }
     
 }
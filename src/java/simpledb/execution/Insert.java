@@ -93,7 +93,7 @@ public class Insert extends Operator {
         if (called) return null;
         int count = 0;
         while (child.hasNext()) {
-            Tuple tuple = child.next();
+            Tuple tuple = copy(child.next());
             try {
                 Database.getBufferPool().insertTuple(tid, tableId, tuple);
             } catch (IOException e) {
@@ -107,6 +107,19 @@ public class Insert extends Operator {
         return tuple;
     }
 
+    /**
+     * Scans return the tuples held by the pages of the BufferPool, and
+     * inserting a tuple gives it a RecordId in the table it is inserted
+     * into, so the child's tuples are inserted as copies.
+     */
+    private static Tuple copy(Tuple t) {
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            copy.setField(i, t.getField(i));
+        }
+        return copy;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
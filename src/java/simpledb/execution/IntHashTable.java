@@ -0,0 +1,126 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to ids 0, 1, 2, ... given in the order the keys
+ * are first added, for the INT_TYPE join and group-by keys of the operators.
+ * It uses open addressing with linear probing over a single long[] array,
+ * each slot holding a key and its id, so that neither keys nor ids are boxed
+ * and a lookup touches one array. The operators keep what they store for a
+ * key in their own arrays, indexed by its id.
+ */
+class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_CAPACITY = 16;
+
+    // 每个槽的高32位是id+1（0表示空槽），低32位是键
+    private long[] slots;
+    private int[] keys;  // 每个id的键
+    private int size = 0;
+
+    IntHashTable() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expected the number of keys the table holds without growing
+     */
+    IntHashTable(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity *= 2;
+        }
+        slots = new long[capacity];
+        keys = new int[capacity / 2];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the id of the key, or -1 if it has not been added
+     */
+    int get(int key) {
+        int mask = slots.length - 1;
+        for (int s = hash(key) & mask; ; s = (s + 1) & mask) {
+            long slot = slots[s];
+            if (slot == 0) {
+                return -1;
+            }
+            if ((int) slot == key) {
+                return (int) (slot >>> 32) - 1;
+            }
+        }
+    }
+
+    /**
+     * Add the key if it is not in the table yet.
+     *
+     * @return the id of the key; a new key gets the id size() - 1
+     */
+    int add(int key) {
+        int mask = slots.length - 1;
+        int s = hash(key) & mask;
+        for (; slots[s] != 0; s = (s + 1) & mask) {
+            if ((int) slots[s] == key) {
+                return (int) (slots[s] >>> 32) - 1;
+            }
+        }
+        int id = size++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        slots[s] = slot(key, id);
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private static long slot(int key, int id) {
+        return ((long) (id + 1) << 32) | (key & 0xFFFFFFFFL);
+    }
+
+    private void grow() {
+        slots = new long[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int s = hash(keys[id]) & mask;
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = slot(keys[id], id);
+        }
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the key with the given id
+     */
+    int key(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("key " + id + " of a table of " + size);
+        }
+        return keys[id];
+    }
+
+    /**
+     * Remove all the keys, keeping the arrays for reuse.
+     */
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+}
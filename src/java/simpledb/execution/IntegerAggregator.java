@@ -3,22 +3,34 @@ package simpledb.execution;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group gets an id, from an IntHashTable when there is no grouping or
+ * the group-by field is an INT_TYPE, and the aggregates of the groups are
+ * kept in arrays indexed by id, so merging a tuple boxes nothing.
+ * <p>
+ * SUM_COUNT gives the sum and the count of each group, and SC_AVG averages
+ * tuples of such partial results, whose sum is in the aggregate field and
+ * whose count is in the field after it. Without grouping, COUNT and
+ * SUM_COUNT give a row of zeros for an empty input; the other aggregates
+ * have no value to give and return no row.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    private static String NO_GROUP="_DEFAULT_KEY_";
     private final int gbFieldIndex;
     private final Type gbFieldType;
     private final int aggregateFieldIndex;
     private final Op op;
-    private AggParse tupleParse;
+    private final IntHashTable intGroups;         // INT_TYPE分组或不分组
+    private final Map<Field, Integer> otherGroups; // 其他类型的分组
+    private final List<Field> otherKeys;
+    // 每个分组的聚合值（MIN/MAX及各种和）和元组个数
+    private long[] values = new long[16];
+    private int[] counts = new int[16];
 
     /**
      * Aggregate constructor
@@ -41,31 +53,39 @@ public class IntegerAggregator implements Aggregator {
         this.gbFieldType =gbfieldtype;
         this.aggregateFieldIndex =afield;
         this.op=what;
-        switch (what){
-            case MIN :
-                tupleParse =new MinAggParse();
-                break;
-            case AVG:
-                tupleParse =new AvgAggParse();
-                break;
-            case SUM:
-                tupleParse =new SumAggParse();
-                break;
-            case COUNT:
-                tupleParse =new CountAggParse();
-                break;
-            case MAX:
-                tupleParse =new MaxAggParse();
-                break;
-            //case SC_AVG:
-            //    break;
-            //case SUM_COUNT:
-            //    break;
-            default:
-                break;
+        if (gbfield == NO_GROUPING || gbfieldtype == Type.INT_TYPE) {
+            intGroups = new IntHashTable();
+            otherGroups = null;
+            otherKeys = null;
+        } else {
+            intGroups = null;
+            otherGroups = new HashMap<>();
+            otherKeys = new ArrayList<>();
         }
     }
 
+    /**
+     * @return the id of the group of the tuple, adding the group if it is new
+     */
+    private int group(Tuple tup) {
+        if (intGroups != null) {
+            int key = gbFieldIndex == NO_GROUPING ? 0 : ((IntField) tup.getField(gbFieldIndex)).getValue();
+            return intGroups.add(key);
+        }
+        Field key = tup.getField(gbFieldIndex);
+        Integer id = otherGroups.get(key);
+        if (id == null) {
+            id = otherKeys.size();
+            otherGroups.put(key, id);
+            otherKeys.add(key);
+        }
+        return id;
+    }
+
+    private int numGroups() {
+        return intGroups != null ? intGroups.size() : otherKeys.size();
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -75,11 +95,56 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String key=NO_GROUP;
-        if(gbFieldIndex!=-1){
-            key=tup.getField(gbFieldIndex).toString();
+        int g = group(tup);
+        if (g == values.length) {
+            values = Arrays.copyOf(values, g * 2);
+            counts = Arrays.copyOf(counts, g * 2);
+        }
+        int val = ((IntField) tup.getField(aggregateFieldIndex)).getValue();
+        switch (op) {
+            case MIN:
+                values[g] = counts[g] == 0 ? val : Math.min(values[g], val);
+                break;
+            case MAX:
+                values[g] = counts[g] == 0 ? val : Math.max(values[g], val);
+                break;
+            case COUNT:
+                break;
+            default:
+                values[g] += val;
+                break;
+        }
+        if (op == Op.SC_AVG) {
+            //部分结果的个数在和的后一个字段
+            counts[g] += ((IntField) tup.getField(aggregateFieldIndex + 1)).getValue();
+        } else {
+            counts[g]++;
         }
-        tupleParse.parse(key,tup.getField(aggregateFieldIndex));
+    }
+
+    private int result(int g) {
+        switch (op) {
+            case COUNT:
+                return counts[g];
+            case AVG:
+            case SC_AVG:
+                return counts[g] == 0 ? 0 : (int) (values[g] / counts[g]);
+            default:
+                return (int) values[g];
+        }
+    }
+
+    private Tuple row(TupleDesc td, Field group, int g) {
+        Tuple tuple = new Tuple(td);
+        int i = 0;
+        if (group != null) {
+            tuple.setField(i++, group);
+        }
+        tuple.setField(i++, new IntField(g < 0 ? 0 : result(g)));
+        if (op == Op.SUM_COUNT) {
+            tuple.setField(i, new IntField(g < 0 ? 0 : counts[g]));
+        }
+        return tuple;
     }
 
     /**
@@ -92,127 +157,33 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        //throw new
-        //UnsupportedOperationException("please implement me for lab2");
-        ConcurrentHashMap<String, Integer> tupleParseResult = tupleParse.getResult();
-        Type[] types;
-        String[] names;
-        TupleDesc td;
-        List<Tuple> tupleList=new LinkedList<>();
-        if(gbFieldIndex==-1){
-            types=new Type[]{Type.INT_TYPE};
-            names=new String[]{"aggResult"};
-            td=new TupleDesc(types,names);
-            Tuple tuple = new Tuple(td);
-            tuple.setField(0,new IntField(tupleParseResult.get(NO_GROUP)));
-            tupleList.add(tuple);
-        }else {
-            types=new Type[]{gbFieldType,Type.INT_TYPE};
-            names=new String[]{"groupVal","aggResult"};
-            td=new TupleDesc(types,names);
-            for (String key : tupleParseResult.keySet()) {
-                Tuple tuple = new Tuple(td);
-                if(gbFieldType==Type.INT_TYPE){
-                    tuple.setField(0,new IntField(Integer.parseInt(key)));
-                }else {
-                    tuple.setField(0,new StringField(key,key.length()));
-                }
-                tuple.setField(1,new IntField(tupleParseResult.get(key)));
-                tupleList.add(tuple);
-            }
-        }
-        return new TupleIterator(td,tupleList);
-    }
-
-    private interface AggParse {
-        void parse(String key, Field field);
-        ConcurrentHashMap<String, Integer> getResult();
-    }
-
-    private class MaxAggParse implements AggParse {
-        ConcurrentHashMap<String, Integer> groupResult = new ConcurrentHashMap<>();
-
-        @Override
-        public void parse(String key, Field field) {
-            int val = Integer.parseInt(field.toString());
-            if (groupResult.containsKey(key)) {
-                groupResult.put(key, Math.max(val, groupResult.get(key)));
-            } else {
-                groupResult.put(key, val);
-            }
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (gbFieldIndex != NO_GROUPING) {
+            types.add(gbFieldType);
+            names.add("groupVal");
         }
-
-        @Override
-        public ConcurrentHashMap<String, Integer> getResult() {
-            return groupResult;
+        types.add(Type.INT_TYPE);
+        names.add("aggResult");
+        if (op == Op.SUM_COUNT) {
+            types.add(Type.INT_TYPE);
+            names.add("aggCount");
         }
-
-    }
-
-    private class MinAggParse implements AggParse {
-        ConcurrentHashMap<String, Integer> groupResult = new ConcurrentHashMap<>();
-
-        @Override
-        public void parse(String key, Field field) {
-            int val = Integer.parseInt(field.toString());
-            if (groupResult.containsKey(key)) {
-                groupResult.put(key, Math.min(val, groupResult.get(key)));
-            } else {
-                groupResult.put(key, val);
+        TupleDesc td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+        List<Tuple> tupleList=new ArrayList<>(numGroups());
+        if(gbFieldIndex==NO_GROUPING){
+            if (numGroups() > 0) {
+                tupleList.add(row(td, null, 0));
+            } else if (op == Op.COUNT || op == Op.SUM_COUNT) {
+                //空输入的计数是0
+                tupleList.add(row(td, null, -1));
+            }
+        }else {
+            for (int g = 0; g < numGroups(); g++) {
+                Field key = intGroups != null ? new IntField(intGroups.key(g)) : otherKeys.get(g);
+                tupleList.add(row(td, key, g));
             }
         }
-
-        @Override
-        public ConcurrentHashMap<String, Integer> getResult() {
-            return groupResult;
-        }
-    }
-
-    private class CountAggParse implements AggParse {
-        ConcurrentHashMap<String, Integer> groupResult = new ConcurrentHashMap<>();
-
-        @Override
-        public void parse(String key, Field field) {
-            groupResult.put(key,groupResult.getOrDefault(key,0)+1);
-        }
-
-        @Override
-        public ConcurrentHashMap<String, Integer> getResult() {
-            return groupResult;
-        }
-    }
-
-    private class AvgAggParse implements AggParse {
-        ConcurrentHashMap<String, Integer> groupResult = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> sumResult = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> cntResult = new ConcurrentHashMap<>();
-
-        @Override
-        public void parse(String key, Field field) {
-            int val = Integer.parseInt(field.toString());
-            cntResult.put(key,cntResult.getOrDefault(key,0)+1);
-            sumResult.put(key,sumResult.getOrDefault(key,0)+val);
-            groupResult.put(key,sumResult.get(key)/cntResult.get(key));
-        }
-
-        @Override
-        public ConcurrentHashMap<String, Integer> getResult() {
-            return groupResult;
-        }
-    }
-
-    private class SumAggParse implements AggParse {
-        ConcurrentHashMap<String, Integer> groupResult = new ConcurrentHashMap<>();
-
-        @Override
-        public void parse(String key, Field field) {
-            int val = Integer.parseInt(field.toString());
-            groupResult.put(key,groupResult.getOrDefault(key,0)+val);
-        }
-
-        @Override
-        public ConcurrentHashMap<String, Integer> getResult() {
-            return groupResult;
-        }
+        return new TupleIterator(td,tupleList);
     }
 }
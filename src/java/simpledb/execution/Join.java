@@ -1,6 +1,5 @@
 package simpledb.execution;
 
-import simpledb.storage.Field;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
@@ -19,6 +18,7 @@ public class Join extends Operator {
     private OpIterator child2;
     private OpIterator[] children=null;
     private Tuple next1;
+    private transient TupleDesc mergedTd;  // open时算好，不必每个结果元组都合并一次
 
 
     /**
@@ -78,6 +78,7 @@ public class Join extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        mergedTd = getTupleDesc();
         super.open();
         child1.open();
         child2.open();
@@ -126,20 +127,7 @@ public class Join extends Operator {
                 Tuple next2 = child2.next();
                 //if(next1.getField(joinPredicate.getField1()).equals(next2.getField(joinPredicate.getField2()))){
                 if (joinPredicate.filter(next1,next2)) {
-                    TupleDesc mergeTd = getTupleDesc();
-                    Tuple tuple = new Tuple(mergeTd);
-                    int index = 0;
-                    Iterator<Field> fields = next1.fields();
-                    while (fields.hasNext()) {
-                        tuple.setField(index, fields.next());
-                        index += 1;
-                    }
-                    fields = next2.fields();
-                    while (fields.hasNext()) {
-                        tuple.setField(index, fields.next());
-                        index += 1;
-                    }
-                    return tuple;
+                    return Tuple.merge(mergedTd, next1, next2);
                 }
             }
         }
@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,24 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Clears the given batch and fills it with the next tuples, as many as fit,
+   * so that callers pay for one call per batch instead of one per tuple. It
+   * may be mixed with calls to next; each tuple is returned once either way.
+   * The default implementation calls hasNext and next for each tuple.
+   *
+   * @return the number of tuples put in the batch; 0 only when there are no
+   *   more tuples
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+    batch.clear();
+    while (!batch.isFull() && hasNext()) {
+      batch.add(next());
+    }
+    return batch.size();
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
@@ -49,6 +50,39 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    /**
+     * Fills the batch through fetchNextBatch, after the tuple hasNext may
+     * have fetched already.
+     */
+    @Override
+    public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        batch.clear();
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        fetchNextBatch(batch);
+        return batch.size();
+    }
+
+    /**
+     * Appends the next tuples to the batch until it is full or the iteration
+     * is finished. The default implementation calls fetchNext for each
+     * tuple; operators that can produce their tuples a batch at a time
+     * override it.
+     *
+     * @param batch a batch that is not full; it may already hold tuples
+     */
+    protected void fetchNextBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null)
+            batch.add(t);
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -2,7 +2,6 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -10,10 +9,29 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * When the child has more tuples than the memory budget, OrderBy does an
+ * external merge sort: each budget-sized part of the input is sorted in
+ * memory and written to a temporary file as a sorted run, and the runs are
+ * merged with a heap while the result is read. At most MAX_FAN_IN runs are
+ * merged at once; when there are more, merge passes first merge groups of
+ * consecutive runs of about the same size into longer runs, so every tuple
+ * is written about log(runs) / log(MAX_FAN_IN) times. The sort is stable.
+ *
+ * @see #setMemoryBudget
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+    /**
+     * Default number of tuples sorted in memory
+     */
+    public final static int MEMORY_BUDGET = 100000;
+    /**
+     * Largest number of sorted runs merged at once
+     */
+    static final int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -21,6 +39,13 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private transient TupleComparator comparator;
+    private int memoryBudget = MEMORY_BUDGET;
+    // 写到磁盘上的有序段，按输入的顺序；输入全在内存中时为空
+    private transient List<SpillFile> runs = new ArrayList<>();
+    private transient int spilledRuns;
+    private transient long spilledTuples;
+    private transient Merge merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -59,24 +84,201 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * Set the number of tuples OrderBy sorts in memory. When the child has
+     * more, sorted runs are written to temporary files and merged. Takes
+     * effect on the next open.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.memoryBudget = tuples;
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk since the operator
+     * was last opened, 0 if the child fit in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    /**
+     * @return the number of tuples written to disk since the operator was
+     * last opened, by the sorted runs and the merge passes
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        comparator = new TupleComparator(orderByField, asc);
+        closeRuns();
+        childTups.clear();
+        spilledRuns = 0;
+        spilledTuples = 0;
+        // load the tuples in a collection, and sort it; write it out as a
+        // sorted run whenever it is full
+        BatchInput input = new BatchInput(child);
+        Tuple t;
+        while ((t = input.next()) != null) {
+            if (childTups.size() == memoryBudget) {
+                writeRun();
+            }
+            childTups.add(t);
+        }
+        childTups.sort(comparator);
+        //最后一段留在内存中，和磁盘上的段一起归并
+        while (runs.size() + 1 > MAX_FAN_IN) {
+            mergePass();
+        }
+        start();
         super.open();
     }
 
+    private void writeRun() throws DbException {
+        childTups.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups) {
+            run.add(t);
+        }
+        //写完的段不再占用写缓冲区，段数很多时也不会耗尽内存
+        run.finish();
+        spilledTuples += childTups.size();
+        childTups.clear();
+        runs.add(run);
+        spilledRuns++;
+    }
+
+    /**
+     * One merge pass: split the runs on disk into as few groups of
+     * consecutive runs as MAX_FAN_IN allows, of about the same size, and
+     * merge each group into one run. Merged runs take the place of their
+     * group, so ties still come out in input order.
+     */
+    private void mergePass() throws DbException {
+        int groups = (runs.size() + MAX_FAN_IN - 1) / MAX_FAN_IN;
+        List<SpillFile> merged = new ArrayList<>(groups);
+        int from = 0;
+        for (int g = 0; g < groups; g++) {
+            int to = (int) ((long) runs.size() * (g + 1) / groups);
+            List<SpillFile> group = runs.subList(from, to);
+            from = to;
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            SpillFile run = new SpillFile(td);
+            Merge pass = new Merge(group, null);
+            Tuple t;
+            while ((t = pass.next()) != null) {
+                run.add(t);
+                spilledTuples++;
+            }
+            run.finish();
+            for (SpillFile r : group) {
+                r.close();
+            }
+            merged.add(run);
+            spilledRuns++;
+        }
+        runs = merged;
+    }
+
+    /**
+     * Start reading the sorted tuples from the first one.
+     */
+    private void start() throws DbException {
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+            merge = null;
+        } else {
+            it = null;
+            merge = new Merge(runs, childTups);
+        }
+    }
+
+    /**
+     * A k-way merge of sorted runs on disk and, optionally, a last sorted
+     * run in memory. Ties are taken from the earliest run.
+     */
+    private class Merge {
+        private final List<SpillFile> files;
+        private final Iterator<Tuple> last;
+        private final Tuple[] heads;  // 每个段的当前元组
+        private final PriorityQueue<Integer> heap;  // 按当前元组排序的段号
+
+        Merge(List<SpillFile> files, List<Tuple> last) throws DbException {
+            this.files = files;
+            this.last = last == null ? null : last.iterator();
+            int n = files.size() + (last == null ? 0 : 1);
+            this.heads = new Tuple[n];
+            this.heap = new PriorityQueue<>(n, (a, b) -> {
+                int c = comparator.compare(heads[a], heads[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (int r = 0; r < n; r++) {
+                if (r < files.size()) {
+                    files.get(r).rewind();
+                }
+                advance(r);
+            }
+        }
+
+        private void advance(int r) throws DbException {
+            Tuple t;
+            if (r < files.size()) {
+                t = files.get(r).readNext();
+            } else {
+                t = last.hasNext() ? last.next() : null;
+            }
+            heads[r] = t;
+            if (t != null) {
+                heap.add(r);
+            }
+        }
+
+        /**
+         * @return the next tuple in the ordering, or null after the last one
+         */
+        Tuple next() throws DbException {
+            Integer r = heap.poll();
+            if (r == null) {
+                return null;
+            }
+            Tuple t = heads[r];
+            advance(r);
+            return t;
+        }
+    }
+
+    private void closeRuns() {
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.close();
+            }
+        }
+        runs = new ArrayList<>();
+        merge = null;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        closeRuns();
+        childTups.clear();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        start();
     }
 
     /**
@@ -86,7 +288,10 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merge != null) {
+            return merge.next();
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +309,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
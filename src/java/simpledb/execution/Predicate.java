@@ -4,6 +4,7 @@ import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -114,6 +115,19 @@ public class Predicate implements Serializable {
         //return false;
     }
 
+    /**
+     * @return true if t satisfies every predicate in the list (so also if
+     *         the list is empty)
+     */
+    public static boolean filterAll(List<Predicate> predicates, Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -15,8 +16,11 @@ public class Project extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
+    private BatchInput input;
     private final TupleDesc td;
-    private final List<Integer> outFieldIds;
+    private final int[] outFields;
+    // 输出子节点元组的所有字段且顺序不变时，直接返回子节点的元组
+    private final boolean identity;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -34,7 +38,7 @@ public class Project extends Operator {
     public Project(List<Integer> fieldList, Type[] types,
                    OpIterator child) {
         this.child = child;
-        outFieldIds = fieldList;
+        this.input = new BatchInput(child);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -42,6 +46,13 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFields = new int[fieldList.size()];
+        boolean identity = outFields.length == childtd.numFields();
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+            identity &= outFields[i] == i;
+        }
+        this.identity = identity;
     }
 
     public TupleDesc getTupleDesc() {
@@ -51,16 +62,18 @@ public class Project extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        input.clear();
         super.open();
     }
 
     public void close() {
         super.close();
         child.close();
+        input.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child.rewind();
+        input.rewind();
     }
 
     /**
@@ -71,14 +84,17 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (!child.hasNext()) return null;
-        Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
-        newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        Tuple t = input.next();
+        if (t == null) return null;
+        return identity ? t : t.project(td, outFields);
+    }
+
+    @Override
+    protected void fetchNextBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        Tuple t;
+        while (!batch.isFull() && (t = input.next()) != null) {
+            batch.add(identity ? t : t.project(td, outFields));
         }
-        return newTuple;
     }
 
     @Override
@@ -90,6 +106,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.input = new BatchInput(child);
         }
     }
 
@@ -5,6 +5,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
@@ -114,10 +115,12 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        TupleBatch batch = new TupleBatch();
+        while (op.nextBatch(batch) > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                System.out.println(batch.get(i));
+            }
+            cnt += batch.size();
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
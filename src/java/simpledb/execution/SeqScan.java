@@ -20,6 +20,8 @@ public class SeqScan implements OpIterator {
     private TransactionId transactionId;
     private int tableId;
     private String tableAlias;
+    private List<Predicate> predicates;
+    private int[] fields;
     private DbFileIterator dbFileIterator;
 
     /**
@@ -39,11 +41,104 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Collections.emptyList(), null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of the table
+     * satisfying the given predicate. On a HeapFile, pages whose zone map
+     * shows that they cannot hold a match are not read at all.
+     *
+     * @param predicate
+     *            the predicate on the fields of the table, or null for all
+     *            tuples
+     * @see HeapFile#iterator(TransactionId, Predicate)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate predicate) {
+        this(tid, tableid, tableAlias,
+                predicate == null ? Collections.emptyList() : Collections.singletonList(predicate), null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of the table
+     * satisfying all the given predicates, with just the given fields. On a
+     * HeapFile the predicates are evaluated on the pages themselves, so
+     * tuples that do not match are never copied and only the matching ones
+     * are projected.
+     *
+     * @param predicates
+     *            the predicates on the fields of the table (the field
+     *            numbers are those of the table, not of the projection)
+     * @param fields
+     *            the indexes of the fields of the table to return, in the
+     *            order they are wanted; null for all fields
+     * @see HeapFile#iterator(TransactionId, List, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates, int[] fields) {
         // some code goes here
         this.transactionId=tid;
         this.tableId=tableid;
         this.tableAlias=tableAlias;
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(transactionId);
+        this.predicates=predicates;
+        this.fields=fields;
+        dbFileIterator = openIterator();
+    }
+
+    private DbFileIterator openIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (predicates.isEmpty() && fields == null) {
+            return file.iterator(transactionId);
+        }
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).iterator(transactionId, predicates, fields);
+        }
+        DbFileIterator it = file.iterator(transactionId);
+        TupleDesc projected = fields == null ? null : file.getTupleDesc().project(fields);
+        return new AbstractDbFileIterator() {
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (Predicate.filterAll(predicates, t)) {
+                        return projected == null ? t : t.project(projected, fields);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
+    /**
+     * @return the predicates the returned tuples satisfy, on the fields of
+     *         the table; empty if the scan returns all tuples
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @return the indexes of the fields of the table the scan returns, or
+     *         null if it returns all of them
+     */
+    public int[] getFields() {
+        return fields;
     }
 
     /**
@@ -99,7 +194,8 @@ public class SeqScan implements OpIterator {
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
+     * (e.g., "alias.fieldName"). A scan with a projection only has the
+     * projected fields.
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
@@ -114,7 +210,8 @@ public class SeqScan implements OpIterator {
             typeAr[i] = tupleDesc.getFieldType(i);
             fieldAr[i] = getAlias() + "." + tupleDesc.getFieldName(i);
         }
-        return new TupleDesc(typeAr, fieldAr);
+        TupleDesc aliased = new TupleDesc(typeAr, fieldAr);
+        return fields == null ? aliased : aliased.project(fields);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -130,6 +227,11 @@ public class SeqScan implements OpIterator {
         return dbFileIterator.next();
     }
 
+    @Override
+    public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        return dbFileIterator.nextBatch(batch);
+    }
+
     public void close() {
         // some code goes here
         dbFileIterator.close();
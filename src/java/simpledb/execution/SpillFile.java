@@ -0,0 +1,212 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A temporary file of tuples, for operators whose input does not fit in
+ * memory: the partitions of HashEquiJoin and the sorted runs of OrderBy.
+ * Tuples are appended, then read back in the order they were written, as
+ * many times as needed. They are stored in the variable-length format of
+ * SlottedPage, followed by their RecordIds, with the page ids written the
+ * way LogFile writes them.
+ * <p>
+ * The file is deleted when it is closed; the operators that spill close
+ * their files when they are closed.
+ */
+class SpillFile implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;  // 写完之后为null
+    private DataInputStream in;
+    private int size = 0;
+    private int read = 0;
+    // 页号的类型，文件中只写它们的序号
+    private final List<Class<?>> pidClasses = new ArrayList<>();
+    private final List<Constructor<?>> pidConstructors = new ArrayList<>();
+    // 上一个读到的页号，同一页的元组共用
+    private PageId lastPid;
+    private int[] lastPidInfo;
+
+    /**
+     * Create an empty spill file for tuples of the given TupleDesc.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb", ".spill");
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            file.delete();
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has been finished or read
+     */
+    void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file " + file + " is no longer written");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                td.getFieldType(i).serializeVariable(t.getField(i), out);
+            }
+            writeRecordId(t.getRecordId());
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file " + file + ": " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Flush the tuples added so far and release the write buffer, for files
+     * that are complete but not read yet, such as the sorted runs waiting
+     * to be merged. No more tuples can be added afterwards.
+     */
+    void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file " + file + ": " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Start reading the tuples from the first one. No more tuples can be
+     * added afterwards.
+     */
+    void rewind() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (in != null) {
+                in.close();
+            }
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("cannot read spill file " + file + ": " + e.getMessage());
+        }
+        read = 0;
+    }
+
+    /**
+     * @return the next tuple of the file, or null after the last one
+     */
+    Tuple readNext() throws DbException {
+        if (in == null) {
+            rewind();
+        }
+        if (read == size) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parseVariable(in));
+            }
+            t.setRecordId(readRecordId());
+        } catch (ParseException | IOException e) {
+            throw new DbException("cannot read spill file " + file + ": " + e.getMessage());
+        }
+        read++;
+        return t;
+    }
+
+    private void writeRecordId(RecordId rid) throws IOException {
+        if (rid == null) {
+            out.writeByte(-1);
+            return;
+        }
+        PageId pid = rid.getPageId();
+        int type = pidClasses.indexOf(pid.getClass());
+        if (type == -1) {
+            type = pidClasses.size();
+            pidClasses.add(pid.getClass());
+            pidConstructors.add(pid.getClass().getDeclaredConstructors()[0]);
+        }
+        out.writeByte(type);
+        for (int j : pid.serialize()) {
+            out.writeInt(j);
+        }
+        out.writeInt(rid.getTupleNumber());
+    }
+
+    private RecordId readRecordId() throws IOException, DbException {
+        int type = in.readByte();
+        if (type == -1) {
+            return null;
+        }
+        Constructor<?> c = pidConstructors.get(type);
+        int[] pageInfo = new int[c.getParameterCount()];
+        for (int i = 0; i < pageInfo.length; i++) {
+            pageInfo[i] = in.readInt();
+        }
+        if (lastPid == null || lastPid.getClass() != pidClasses.get(type) || !Arrays.equals(pageInfo, lastPidInfo)) {
+            Object[] idArgs = new Object[pageInfo.length];
+            for (int i = 0; i < pageInfo.length; i++) {
+                idArgs[i] = pageInfo[i];
+            }
+            try {
+                lastPid = (PageId) c.newInstance(idArgs);
+            } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
+                throw new DbException("cannot read page id from spill file " + file + ": " + e.getMessage());
+            }
+            lastPidInfo = pageInfo;
+        }
+        return new RecordId(lastPid, in.readInt());
+    }
+
+    /**
+     * Close the file and delete it.
+     */
+    @Override
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        in = null;
+        file.delete();
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT: it returns the
+ * first limit tuples of its child in the order of a field. It keeps a heap
+ * of the best limit tuples seen so far, whose root is the worst of them, so
+ * it takes O(n log limit) time and O(limit) memory instead of sorting the
+ * whole input like OrderBy. Like OrderBy, ties keep the order of the child.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final int limit;
+    private final List<Tuple> top = new ArrayList<>();
+    private Iterator<Tuple> it;
+
+    /**
+     * A tuple of the heap, with its position in the child for ties
+     */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC()
+    {
+        return this.asc;
+    }
+
+    public int getOrderByField()
+    {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName()
+    {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top.clear();
+        if (limit > 0) {
+            TupleComparator tc = new TupleComparator(orderByField, asc);
+            Comparator<Entry> order = (a, b) -> {
+                int c = tc.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            };
+            // 堆顶是目前最差的元组
+            PriorityQueue<Entry> heap = new PriorityQueue<>(limit, order.reversed());
+            BatchInput input = new BatchInput(child);
+            Tuple t;
+            long seq = 0;
+            while ((t = input.next()) != null) {
+                if (heap.size() < limit) {
+                    heap.add(new Entry(t, seq));
+                } else if (tc.compare(t, heap.peek().tuple) < 0) {
+                    // 相等的元组留下先来的
+                    heap.poll();
+                    heap.add(new Entry(t, seq));
+                }
+                seq++;
+            }
+            Entry[] entries = heap.toArray(new Entry[0]);
+            Arrays.sort(entries, order);
+            for (Entry e : entries) {
+                top.add(e.tuple);
+            }
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        top.clear();
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples of
+     * the child in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,128 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The build side of a hash join: tuples grouped by the value of one of
+ * their fields. Each key has an id, from an IntHashTable for INT_TYPE fields
+ * and from a HashMap otherwise, and the tuples of a key are chained through
+ * arrays indexed by entry, so adding a tuple allocates nothing but the
+ * occasional larger array.
+ * <p>
+ * The tuples of a key are read with find, row and next:
+ * <pre>
+ * for (int e = table.find(key); e != -1; e = table.next(e)) {
+ *     Tuple t = table.row(e);
+ * }
+ * </pre>
+ */
+class TupleHashTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int field;
+    private final IntHashTable ints;         // INT_TYPE的键
+    private final Map<Field, Integer> others; // 其他类型的键
+    private int[] head = new int[INITIAL_CAPACITY];  // 每个键的第一个和最后一个条目
+    private int[] tail = new int[INITIAL_CAPACITY];
+    private Tuple[] rows = new Tuple[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];  // 同一个键的下一个条目
+    private int size = 0;
+
+    /**
+     * @param field the index of the field the tuples are grouped by
+     * @param type the type of that field
+     */
+    TupleHashTable(int field, Type type) {
+        this.field = field;
+        this.ints = type == Type.INT_TYPE ? new IntHashTable() : null;
+        this.others = type == Type.INT_TYPE ? null : new HashMap<>();
+    }
+
+    void add(Tuple t) {
+        Field key = t.getField(field);
+        int keys = ints != null ? ints.size() : others.size();
+        int id;
+        if (ints != null) {
+            id = ints.add(((IntField) key).getValue());
+        } else {
+            Integer old = others.putIfAbsent(key, keys);
+            id = old == null ? keys : old;
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        rows[size] = t;
+        next[size] = -1;
+        if (id == keys) {
+            // 新的键
+            if (id == head.length) {
+                head = Arrays.copyOf(head, id * 2);
+                tail = Arrays.copyOf(tail, id * 2);
+            }
+            head[id] = size;
+        } else {
+            next[tail[id]] = size;
+        }
+        tail[id] = size;
+        size++;
+    }
+
+    /**
+     * @return the first entry with the given key, or -1 if there is none
+     */
+    int find(Field key) {
+        int id;
+        if (ints != null) {
+            if (key.getType() != Type.INT_TYPE) {
+                return -1;
+            }
+            id = ints.get(((IntField) key).getValue());
+        } else {
+            Integer i = others.get(key);
+            id = i == null ? -1 : i;
+        }
+        return id == -1 ? -1 : head[id];
+    }
+
+    /**
+     * @return the tuple of an entry
+     */
+    Tuple row(int e) {
+        return rows[e];
+    }
+
+    /**
+     * @return the next entry with the same key, or -1 after the last one
+     */
+    int next(int e) {
+        return next[e];
+    }
+
+    /**
+     * @return the number of tuples in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Remove all the tuples, keeping the arrays for reuse.
+     */
+    void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        if (ints != null) {
+            ints.clear();
+        } else {
+            others.clear();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.index;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -32,6 +33,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +44,28 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages are
+	 * stored compressed if compressed is set.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compressed - whether the pages are compressed on disk
+	 * @see CompressedFileChannel
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compressed) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = compressed
+				? new CompressedFileChannel(f, BufferPool.getPageSize(), BTreeRootPtrPage.getPageSize())
+				: new DbFileChannel(f);
 	}
 
 	/**
@@ -87,11 +107,11 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf, 0);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -102,13 +122,9 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf,
+                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize());
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -127,8 +143,6 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
 	/**
@@ -141,15 +155,11 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
 		}
 	}
 
@@ -158,7 +168,13 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		long size;
+		try {
+			size = channel.size();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return (int) ((size - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
@@ -534,6 +550,9 @@ public class BTreeFile implements DbFile {
 		}
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+			// the page is held by reference in dirtypages and protected by its lock,
+			// a split may touch hundreds of children so we do not keep them pinned
+			Database.getBufferPool().unpinPage(tid, pid);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
 			}
@@ -1092,15 +1111,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(channel.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1156,11 +1172,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(emptyData, channel.size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1191,10 +1204,8 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(),
+				BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
 
 		// make sure the page is not in the buffer pool	or in the local cache
 		Database.getBufferPool().discardPage(newPageId);
@@ -1317,6 +1328,53 @@ public class BTreeFile implements DbFile {
 
 }
 
+/**
+ * Reads the leaves of a B+ tree scan in the background ahead of the scan,
+ * following right sibling pointers, once the scan has moved on from its
+ * first leaf. Another window is read when half of the last one is used up.
+ * Leaves past the one the scan stops at are not read.
+ *
+ * @see BufferPool#readAhead
+ */
+class LeafReadAhead {
+	private final Predicate<BTreeLeafPage> last;
+	private int left = 0;
+
+	/**
+	 * @param last - whether the scan stops at a leaf
+	 */
+	LeafReadAhead(Predicate<BTreeLeafPage> last) {
+		this.last = last;
+	}
+
+	/**
+	 * Called when the scan moves on to the next leaf
+	 * @param leaf - the leaf the scan moved to
+	 */
+	void advanced(BTreeLeafPage leaf) {
+		BufferPool bufferPool = Database.getBufferPool();
+		int window = bufferPool.getReadAheadPages();
+		if (window <= 0 || left-- > window / 2 || last.test(leaf)) {
+			return;
+		}
+		BTreePageId next = leaf.getRightSiblingId();
+		if (next != null && bufferPool.readAhead(next, window, page -> {
+			BTreeLeafPage p = (BTreeLeafPage) page;
+			return last.test(p) ? null : p.getRightSiblingId();
+		})) {
+			left = window;
+		}
+	}
+
+	/**
+	 * Called when the scan starts over, so that it reads ahead again once it
+	 * has moved on from its first leaf
+	 */
+	void reset() {
+		left = 0;
+	}
+}
+
 /**
  * Helper class that implements the Java Iterator for tuples on a BTreeFile
  */
@@ -1324,6 +1382,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	final LeafReadAhead readAhead = new LeafReadAhead(leaf -> false);
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1345,6 +1404,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
 	}
@@ -1362,12 +1422,14 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 			if(nextp == null) {
 				curp = null;
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.advanced(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1393,7 +1455,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 		curp = null;
+		readAhead.reset();
 	}
 }
 
@@ -1405,6 +1471,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	final LeafReadAhead readAhead = new LeafReadAhead(this::isLastLeaf);
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1430,6 +1497,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 			curp = f.findLeafPage(tid, root, ipred.getField());
@@ -1470,13 +1538,17 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			}
 
 			BTreePageId nextp = curp.getRightSiblingId();
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 			// if there are no more pages to the right, end the iteration
 			if(nextp == null) {
+				it = null;
+				curp = null;
 				return null;
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.advanced(curp);
 				it = curp.iterator();
 			}
 		}
@@ -1484,6 +1556,23 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		return null;
 	}
 
+	/**
+	 * Whether the search ends at the given leaf, i.e. it holds a key past the
+	 * upper bound of a LESS_THAN, LESS_THAN_OR_EQ or EQUALS predicate
+	 */
+	private boolean isLastLeaf(BTreeLeafPage leaf) {
+		Op op = ipred.getOp();
+		if (op != Op.LESS_THAN && op != Op.LESS_THAN_OR_EQ && op != Op.EQUALS) {
+			return false;
+		}
+		Iterator<Tuple> rit = leaf.reverseIterator();
+		if (!rit.hasNext()) {
+			return false;
+		}
+		Field key = rit.next().getField(f.keyField());
+		return key.compare(op == Op.LESS_THAN ? Op.GREATER_THAN_OR_EQ : Op.GREATER_THAN, ipred.getField());
+	}
+
 	/**
 	 * rewind this iterator back to the beginning of the tuples
 	 */
@@ -1498,5 +1587,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
+		curp = null;
+		readAhead.reset();
 	}
 }
@@ -229,6 +229,10 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        if (this.joins.isEmpty()) {
+            //单表查询没有连接，计划缓存里也没有空集合的计划
+            return new ArrayList<>();
+        }
         Set<Set<LogicalJoinNode>> subsets=new HashSet<>();
         Set<LogicalJoinNode> finalSet=new HashSet<>();
         PlanCache planCache = new PlanCache();
@@ -38,6 +38,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -219,6 +220,24 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: only the first n tuples of the result are returned.
+        With an ORDER BY the plan keeps the best n tuples in a {@link TopN}
+        instead of sorting all of them.
+        @param n the number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0) {
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        }
+        limit = n;
+    }
+
+    /** @return the number of tuples of the LIMIT clause, or -1 if there is none */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -261,6 +280,59 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * @return the quantified names of the fields used above the scans of the
+     * plan: in the select list, the aggregate, GROUP BY, ORDER BY and the
+     * joins; or null if the select list has a *, so all fields are used
+     */
+    private Set<String> referencedFields() {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith("*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null) {
+                names.add(groupByField);
+            }
+        }
+        if (hasOrderBy) {
+            names.add(oByField);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        return names;
+    }
+
+    /**
+     * @param td         the TupleDesc of a scan, with quantified field names
+     * @param referenced the fields used above the scans, see referencedFields
+     * @return the indexes of the fields of td the scan has to return, or
+     * null for all of them
+     */
+    private static int[] scanFields(TupleDesc td, Set<String> referenced) {
+        if (referenced == null) {
+            return null;
+        }
+        int[] fields = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (referenced.contains(td.getFieldName(i))) {
+                fields[n++] = i;
+            }
+        }
+        if (n == td.numFields()) {
+            return null;
+        }
+        // 元组至少要有一个字段
+        return n == 0 ? new int[]{0} : Arrays.copyOf(fields, n);
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -276,6 +348,8 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   The filters of each table are evaluated by its {@link SeqScan}, which also returns only the
+     *   fields used by the operators above it.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -292,6 +366,7 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,List<Predicate>> scanPredicates = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -306,6 +381,7 @@ public class LogicalPlan {
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            scanPredicates.put(table.alias, new ArrayList<>());
 
         }
 
@@ -335,7 +411,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            scanPredicates.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,6 +420,14 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        //谓词在扫描中求值，扫描也只返回上层算子用到的字段
+        Set<String> referenced = referencedFields();
+        for (Map.Entry<String, List<Predicate>> e : scanPredicates.entrySet()) {
+            SeqScan ss = (SeqScan) subplanMap.get(e.getKey());
+            subplanMap.put(e.getKey(), new SeqScan(t, getTableId(e.getKey()), e.getKey(), e.getValue(),
+                    scanFields(ss.getTupleDesc(), referenced)));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -471,8 +555,12 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && limit >= 0) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -4,6 +4,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -17,6 +18,7 @@ public class QueryPlanVisualizer {
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -78,6 +80,21 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (!s.getPredicates().isEmpty()) {
+                //扫描中求值的谓词
+                TupleDesc td = Database.getCatalog().getTupleDesc(
+                        Database.getCatalog().getTableId(tableName));
+                StringBuilder predicates = new StringBuilder();
+                for (Predicate p : s.getPredicates()) {
+                    if (predicates.length() > 0)
+                        predicates.append(" AND ");
+                    predicates.append(s.getAlias()).append(".")
+                            .append(td.getFieldName(p.getField()))
+                            .append(p.getOp()).append(p.getOperand());
+                }
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        predicates);
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -240,6 +257,36 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String name;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    name = ORDERBY;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),%3$s:%4$d,card:%5$d", ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()), LIMIT, o.getLimit(),
+                            o.getEstimatedCardinality());
+                } else {
+                    name = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, ((Limit) plan).getLimit(),
+                            plan.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -126,9 +126,6 @@ public class TableStats {
 
     private void addHist() throws TransactionAbortedException, DbException {
         //扫描将所有值加入到对应的直方图直方图中去
-        TransactionId transactionId = new TransactionId();
-        SeqScan seqScan = new SeqScan(transactionId, tableId, "");
-        seqScan.open();
         for(int i=0;i<td.numFields();i++){
             if(td.getFieldType(i)==Type.STRING_TYPE){
                 stringHistMap.put(i,new StringHistogram(NUM_HIST_BINS));
@@ -136,6 +133,19 @@ public class TableStats {
                 intHistMap.put(i,new IntHistogram(NUM_HIST_BINS,minMap.get(i),maxMap.get(i)));
             }
         }
+        TransactionId transactionId = new TransactionId();
+        SeqScan seqScan = new SeqScan(transactionId, tableId, "");
+        try {
+            seqScan.open();
+            scanHist(seqScan);
+        } finally {
+            //释放扫描持有的页面和锁，否则会一直占着buffer pool并挡住写事务
+            seqScan.close();
+            Database.getBufferPool().transactionComplete(transactionId);
+        }
+    }
+
+    private void scanHist(SeqScan seqScan) {
         while (true){
             try {
                 if (!seqScan.hasNext()) break;
@@ -162,7 +172,16 @@ public class TableStats {
     private void getMinAndMax() throws TransactionAbortedException, DbException {
         TransactionId transactionId = new TransactionId();
         SeqScan seqScan = new SeqScan(transactionId, tableId, "");
-        seqScan.open();
+        try {
+            seqScan.open();
+            scanMinAndMax(seqScan);
+        } finally {
+            seqScan.close();
+            Database.getBufferPool().transactionComplete(transactionId);
+        }
+    }
+
+    private void scanMinAndMax(SeqScan seqScan) {
         //一次扫描统计所有int类型的最大值
         while (true){
             try {
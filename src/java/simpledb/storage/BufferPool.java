@@ -11,146 +11,15 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
-class LockManager {
-    //private Map<PageId, ReentrantReadWriteLock> lockMap;
-    private Map<PageId, Set<TransactionId>> readTidMap;
-    private Map<PageId, TransactionId> writeTidMap;
-    private Map<TransactionId, Set<PageId>> tidPageMap;
-
-    public LockManager() {
-        //lockMap = new ConcurrentHashMap<>();
-        readTidMap = new ConcurrentHashMap<>();
-        writeTidMap = new ConcurrentHashMap<>();
-        tidPageMap = new ConcurrentHashMap<>();
-    }
-
-    public synchronized void putPageId2TidMap(PageId pageId, TransactionId tid) {
-        //if (!tidPageMap.containsKey(tid)) {
-        //    tidPageMap.put(tid, new HashSet<>());
-        //}
-        tidPageMap.get(tid).add(pageId);
-    }
-
-    public synchronized void removePageIdFromTidMap(PageId pageId, TransactionId tid) {
-        tidPageMap.get(tid).remove(pageId);
-    }
-
-    public synchronized boolean lock(PageId pageId, TransactionId tid, boolean isSharedLock) throws InterruptedException {
-        //Random random = new Random();
-        //long randomTimeout = random.nextInt(10);
-        if (!tidPageMap.containsKey(tid)) {
-            tidPageMap.put(tid, new HashSet<>());
-        }
-        if (isSharedLock) {
-            //申请共享锁
-            if (writeTidMap.containsKey(pageId)) {
-                //有事务占有排他锁，判断该事务是否是自己
-                if (tid.equals(writeTidMap.get(pageId))) {
-                    //System.out.println(String.format("Transaction[%d] get readLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                    return true;
-                }
-                BufferPoolDPrintf.print(String.format("Transaction[%d] cannot get readLock of page(%d-%d), because other tid has exclusive lock",
-                        tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                //wait(randomTimeout);
-                //wait(5);
-                return false;
-            }
-            //没有事务持有排他锁，可以申请共享锁
-            if (!readTidMap.containsKey(pageId)) {
-                //没有事务持有共享锁
-                readTidMap.put(pageId, new HashSet<>());
-                readTidMap.get(pageId).add(tid);
-                putPageId2TidMap(pageId, tid);
-                BufferPoolDPrintf.print(String.format("Transaction[%d] get readLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-            } else {
-                //检查tid是否已经持有pageId的共享锁
-                if (!readTidMap.get(pageId).contains(tid)) {
-                    putPageId2TidMap(pageId, tid);
-                    readTidMap.get(pageId).add(tid);
-                    BufferPoolDPrintf.print(String.format("Transaction[%d] get readLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                }
-            }
-            return true;
-        } else {
-            //申请排他锁
-            if (!writeTidMap.containsKey(pageId)) {
-                //没有事务持有排他锁
-                if (readTidMap.get(pageId) == null || (readTidMap.get(pageId).contains(tid) && readTidMap.get(pageId).size() == 1)) {
-                    //没有事务持有共享锁或者只有tid持有共享锁
-                    writeTidMap.put(pageId, tid);
-                    readTidMap.remove(pageId);
-                    putPageId2TidMap(pageId, tid);
-                    BufferPoolDPrintf.print(String.format("Transaction[%d] get writeLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                    return true;
-                } else {
-                    BufferPoolDPrintf.print(String.format("Transaction[%d] cannot get writeLock of page(%d-%d) because other tid has shared lock", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                    //wait(5);
-                    return false;
-                }
-            } else {
-                if (tid.equals(writeTidMap.get(pageId))) {
-                    writeTidMap.put(pageId, tid);
-                    putPageId2TidMap(pageId, tid);
-                    //DPrintf.print(String.format("Transaction[%d] get writeLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                    return true;
-                }
-                BufferPoolDPrintf.print(String.format("Transaction[%d] cannot get writeLock of page(%d-%d) because other tid has exclusive lock", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                //wait(5);
-                return false;
-            }
-        }
-    }
-
-    public synchronized void unlock(PageId pageId, TransactionId tid) {
-        if (writeTidMap.containsKey(pageId)) {
-            if (writeTidMap.get(pageId).equals(tid)) {
-                BufferPoolDPrintf.print(String.format("Transaction[%d] unlock writeLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                writeTidMap.remove(pageId);
-                removePageIdFromTidMap(pageId, tid);
-            }
-        }
-        if (readTidMap.containsKey(pageId)) {
-            Set<TransactionId> transactionIdSet = readTidMap.get(pageId);
-            if (transactionIdSet.contains(tid)) {
-                BufferPoolDPrintf.print(String.format("Transaction[%d] unlock readLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
-                removePageIdFromTidMap(pageId, tid);
-                transactionIdSet.remove(tid);
-            }
-            if (transactionIdSet.size() == 0) {
-                readTidMap.remove(pageId);
-            }
-        }
-        //notifyAll();
-    }
-
-    public synchronized boolean holdsLock(PageId p, TransactionId tid) {
-        return writeTidMap.get(p).equals(tid) ||
-                (readTidMap.containsKey(p) && readTidMap.get(p).contains(tid));
-    }
-
-    public synchronized List<PageId> getTidPages(TransactionId tid) {
-        if(tidPageMap.containsKey(tid)){
-            return tidPageMap.get(tid).stream().toList();
-        }else{
-            return new LinkedList<>();
-        }
-    }
-
-    public synchronized void close(TransactionId tid) {
-        List<PageId> tidPages = getTidPages(tid);
-        for (PageId pageId : tidPages) {
-            //try {
-            unlock(pageId, tid);
-            //} catch (TransactionAbortedException e) {
-            //    e.printStackTrace();
-            //}
-        }
-        //tidPageMap.remove(tid);
-    }
-}
-
 /**
  * BufferPool manages the reading and writing of pages into memory from
  * disk. Access methods call into it to retrieve pages, and it fetches
@@ -159,6 +28,12 @@ class LockManager {
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Independently of transaction locks, every page handed out by getPage is
+ * pinned in its frame until the caller calls {@link #unpinPage} (or the
+ * transaction completes), and pinned pages are never evicted. Short-term
+ * access to the page image is protected by the frame latch, see
+ * {@link #latchPage}.
  *
  * @Threadsafe, all fields are final
  */
@@ -178,9 +53,88 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private static Map<PageId, Page> bufferPool;    // 由pageId到Page的映射
-    private static int numPages;   // bufferPool的页面数
-    private LockManager lockManager;
+    /**
+     * Largest usage count a frame can reach; bounds the number of sweeps
+     * of the clock hand before a victim is found.
+     */
+    private static final int MAX_USAGE = 3;
+
+    /**
+     * Pin count of a frame that is being evicted or sits in the free list;
+     * such a frame cannot be pinned.
+     */
+    private static final int UNPINNABLE = -1;
+
+    /**
+     * Default number of pages a sequential scan reads ahead of itself.
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
+
+    /**
+     * Threads that read pages ahead of scans, see {@link #readAhead}; shared
+     * by all buffer pools.
+     */
+    private static final ExecutorService READ_AHEAD = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A slot of the buffer pool that holds one page. The usage count is
+     * bumped on every hit and decremented by the clock hand as it sweeps;
+     * a page is loaded with a usage count of zero so that pages read only
+     * once (e.g. by a large SeqScan) are the first to go, while pages hit
+     * again survive the sweep.
+     * <p>
+     * The pin count is the number of outstanding getPage calls that have not
+     * been unpinned yet; a frame is only evicted or reused once it drops to
+     * zero. The latch protects the page image against concurrent readers and
+     * writers for the duration of a single page operation.
+     */
+    private static class Frame {
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        final AtomicInteger pinCount = new AtomicInteger(UNPINNABLE);
+        volatile PageId pid;
+        volatile Page page;
+        volatile int usage;
+        volatile boolean discarded;  // 已从pageTable中移除，等待unpin后回收
+        volatile boolean unflushed;  // NO FORCE：已提交、日志已写，但页面还没有写回disk
+        volatile long recLSN;  // unflushed时，第一条还没有写回disk的update日志的位置
+
+        boolean tryPin() {
+            while (true) {
+                int pins = pinCount.get();
+                if (pins == UNPINNABLE) {
+                    return false;
+                }
+                if (pinCount.compareAndSet(pins, pins + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void touch() {
+            if (usage < MAX_USAGE) {
+                usage++;
+            }
+        }
+    }
+
+    private final Map<PageId, Frame> pageTable;    // 由pageId到Frame的映射
+    private final Frame[] frames;  // clock 置换的环形数组，大小即bufferPool的页面数
+    private final Deque<Frame> freeFrames;  // protected by this
+    private int clockHand = 0;  // protected by this
+    private final Map<TransactionId, List<Frame>> pinnedFrames;  // 每个事务尚未unpin的frame
+    private final LockManager lockManager;
+    private volatile boolean steal = false;
+    private volatile boolean force = true;
+    private Thread pageWriter;  // protected by this
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    // 每次写回或丢弃页面时加一，预读据此发现它读到的页面可能已经过期
+    private volatile long diskWrites = 0;  // written under this
+    private final Set<PageId> readingAhead = new HashSet<>();  // 正在被预读的页面, protected by this
+    private final CompressedPageCache compressedCache;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -189,12 +143,99 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        this.numPages = numPages;
-        bufferPool = new LinkedHashMap<>();
+        pageTable = new ConcurrentHashMap<>(numPages * 2);
+        frames = new Frame[numPages];
+        freeFrames = new ArrayDeque<>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            frames[i] = new Frame();
+            freeFrames.add(frames[i]);
+        }
+        pinnedFrames = new ConcurrentHashMap<>();
         lockManager = new LockManager();
+        compressedCache = new CompressedPageCache((long) numPages * pageSize / 2);
 
     }
 
+    /**
+     * Choose between NO STEAL (the default) and STEAL buffer management.
+     * <p>
+     * With STEAL, evictPage may write out a page dirtied by a transaction
+     * that has not committed yet, once the update record of the page is
+     * forced to the log. Aborting such a transaction relies on the before
+     * images in the LogFile to undo the changes on disk, so only pages of
+     * transactions that have a BEGIN record in the log are stolen.
+     *
+     * @param steal true to allow dirty pages to be evicted
+     */
+    public void setStealPolicy(boolean steal) {
+        this.steal = steal;
+    }
+
+    public boolean isStealPolicy() {
+        return steal;
+    }
+
+    /**
+     * Choose between FORCE (the default) and NO FORCE commits.
+     * <p>
+     * With FORCE, transactionComplete writes every page the transaction
+     * dirtied to disk. With NO FORCE, it only writes their update records
+     * to the log, and the commit record forced before its locks are released
+     * makes the transaction durable; the pages stay in the buffer pool and are
+     * written back when they are evicted or flushed by a checkpoint.
+     *
+     * @param force false to commit without writing pages
+     */
+    public void setForcePolicy(boolean force) {
+        this.force = force;
+    }
+
+    public boolean isForcePolicy() {
+        return force;
+    }
+
+    /**
+     * Set the longest time getPage waits for a lock held by another
+     * transaction before it aborts the caller with a
+     * TransactionAbortedException. Deadlocks are detected without waiting
+     * for the timeout; the timeout covers holders that never complete.
+     */
+    public void setLockTimeout(long millis) {
+        lockManager.setLockTimeout(millis);
+    }
+
+    /**
+     * Set how many pages sequential scans read ahead of themselves; 0 turns
+     * read-ahead off.
+     *
+     * @see #readAhead
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.readAheadPages = readAheadPages;
+    }
+
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Set how many bytes of compressed pages the second tier of the buffer
+     * pool keeps, see CompressedFileChannel; 0 turns the tier off. The
+     * default is half the memory of the pages of the pool, which keeps at
+     * least as many pages again as the pool for pages that compress 2:1.
+     */
+    public void setCompressedCacheSize(long bytes) {
+        compressedCache.setCapacity(bytes);
+    }
+
+    public long getCompressedCacheSize() {
+        return compressedCache.getCapacity();
+    }
+
+    CompressedPageCache compressedCache() {
+        return compressedCache;
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -220,6 +261,10 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * The returned page is pinned on behalf of tid and will not be evicted
+     * until it is unpinned with {@link #unpinPage} or tid completes.
+     *
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
@@ -227,76 +272,330 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        //在返回Page之前加锁
-        long t1 = System.currentTimeMillis();
+        //在返回Page之前加锁，拿不到锁时在LockManager中阻塞等待，被选为死锁牺牲者时抛出异常
         boolean isSharedLock = perm == Permissions.READ_ONLY;
-        Random random = new Random(System.currentTimeMillis() + Thread.currentThread().getName().hashCode());
-        long randomTimeout = random.nextInt(300) + 200;
+        lockManager.lock(pid, tid, isSharedLock);
+        //命中时不加任何全局锁，先pin住frame，再确认frame中仍是这个页面
+        Frame frame = pageTable.get(pid);
+        if (frame != null && frame.tryPin()) {
+            Page page = frame.page;
+            if (pid.equals(frame.pid) && page != null && !frame.discarded) {
+                frame.touch();
+                addPin(tid, frame);
+                return page;
+            }
+            unpinFrame(frame);
+        }
+        return loadPage(tid, pid);
+    }
+
+    /**
+     * Miss path of getPage: reserve a frame for the page under the
+     * BufferPool, evicting a page first if the buffer pool is full, then
+     * read the page from its DbFile outside the BufferPool, holding only the
+     * write latch of that frame, and pin it. Threads missing on the same page
+     * meanwhile wait on the frame latch instead of reading it again.
+     */
+    private Page loadPage(TransactionId tid, PageId pid) throws DbException {
         while (true) {
-            try {
-                if (lockManager.lock(pid, tid, isSharedLock)) {
-                    break;
+            Frame frame;
+            boolean reserved = false;
+            synchronized (this) {
+                //页面正在被预读时等它读完，而不是再读一遍
+                while (readingAhead.contains(pid)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 }
-                long now = System.currentTimeMillis();
-                try {
-                    Thread.sleep(randomTimeout);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                frame = pageTable.get(pid);
+                if (frame == null) {
+                    if (freeFrames.isEmpty()) {
+                        evictPage();
+                    }
+                    frame = reserveFrame(pid);
+                    reserved = true;
+                } else if (!frame.tryPin()) {
+                    continue;
+                }
+            }
+            if (reserved) {
+                return readIntoFrame(tid, pid, frame);
+            }
+            //其他线程已经读入或正在读入这个页面，等它释放frame的latch
+            frame.latch.readLock().lock();
+            frame.latch.readLock().unlock();
+            Page page = frame.page;
+            if (pid.equals(frame.pid) && page != null) {
+                frame.touch();
+                addPin(tid, frame);
+                return page;
+            }
+            //读取失败，重试
+            unpinFrame(frame);
+        }
+    }
+
+    /**
+     * Take a free frame for a page that is about to be read: the frame is
+     * put in the page table without a page, pinned once and write latched,
+     * so that it is neither evicted nor used before the page is in it.
+     */
+    private synchronized Frame reserveFrame(PageId pid) {
+        Frame frame = freeFrames.poll();
+        frame.latch.writeLock().lock();
+        frame.pid = pid;
+        frame.page = null;
+        frame.usage = 0;
+        frame.discarded = false;
+        frame.unflushed = false;
+        frame.pinCount.set(1);
+        pageTable.put(pid, frame);
+        return frame;
+    }
+
+    /**
+     * Read the page into a frame reserved by reserveFrame and release its
+     * latch; if the read fails the frame is dropped from the page table.
+     */
+    private Page readIntoFrame(TransactionId tid, PageId pid, Frame frame) throws DbException {
+        boolean loaded = false;
+        try {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = dbFile.readPage(pid);
+            page.markDirty(false, null);//新读取到的page设置为false
+            frame.page = page;
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                synchronized (this) {
+                    if (pageTable.remove(pid, frame)) {
+                        frame.discarded = true;
+                    }
+                }
+            }
+            frame.latch.writeLock().unlock();
+            if (!loaded) {
+                unpinFrame(frame);
+            }
+        }
+        addPin(tid, frame);
+        return frame.page;
+    }
+
+    private void addPin(TransactionId tid, Frame frame) {
+        List<Frame> pins = pinnedFrames.computeIfAbsent(tid, k -> new ArrayList<>());
+        synchronized (pins) {
+            pins.add(frame);
+        }
+    }
+
+    private void unpinFrame(Frame frame) {
+        if (frame.pinCount.decrementAndGet() == 0 && frame.discarded) {
+            synchronized (this) {
+                if (frame.discarded && frame.pinCount.compareAndSet(0, UNPINNABLE)) {
+                    freeFrame(frame);
                 }
-                if (lockManager.lock(pid, tid, isSharedLock)) {
+            }
+        }
+    }
+
+    /**
+     * Release one pin that tid holds on the page, making the page a
+     * candidate for eviction again once no one else has it pinned.
+     * Does nothing if tid does not have the page pinned.
+     *
+     * @param tid the transaction that pinned the page with getPage
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        List<Frame> pins = pinnedFrames.get(tid);
+        if (pins == null) {
+            return;
+        }
+        Frame frame = null;
+        synchronized (pins) {
+            for (Iterator<Frame> it = pins.iterator(); it.hasNext(); ) {
+                Frame f = it.next();
+                if (pid.equals(f.pid)) {
+                    it.remove();
+                    frame = f;
                     break;
                 }
-                //if (now - t1 > randomTimeout) {
-                BufferPoolDPrintf.print(String.format("Transaction[%d] may have dead lock, aborted", tid.getId()));
-                throw new TransactionAbortedException();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
-            //}
-        }
-        //while (true) {
-        //    try {
-        //        if (lockManager.lock(pid, tid, sharedLock)) {
-        //            break;
-        //        }
-        //    } catch (InterruptedException e) {
-        //        e.printStackTrace();
-        //    }
-        //    long now = System.currentTimeMillis();
-        //    if (now - t1 > 500) {
-        //        DPrintf.print(String.format("Transaction[%d] may have dead lock, aborted", tid.getId()));
-        //        throw new TransactionAbortedException();
-        //    }
-        //    Random random = new Random();
-        //    long randomTimeout = random.nextInt(100);
-        //    try {
-        //        Thread.sleep(randomTimeout);
-        //    } catch (InterruptedException e) {
-        //        e.printStackTrace();
-        //    }
-        //}
-        Page page = bufferPool.get(pid);
-        if (page == null) {
-            //当前页面不在bufferPool中，需要从DbFile中读取这页面。
-            if (bufferPool.size() >= numPages) {
-                //throw new DbException("缓冲池已满，暂时没有替换策略");  // 暂时抛出
-                evictPage();//使用lru算法进行置换
+        }
+        if (frame != null) {
+            unpinFrame(frame);
+        }
+    }
+
+    /**
+     * Release every pin the transaction still holds.
+     */
+    private void unpinAll(TransactionId tid) {
+        List<Frame> pins = pinnedFrames.remove(tid);
+        if (pins == null) {
+            return;
+        }
+        synchronized (pins) {
+            for (Frame frame : pins) {
+                unpinFrame(frame);
             }
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            page = dbFile.readPage(pid);
-            page.markDirty(false, tid);//新读取到的page设置为false
-            bufferPool.put(pid, page);
+        }
+    }
+
+    /**
+     * @return the number of pins currently held on the page, or 0 if the
+     * page is not in the buffer pool
+     */
+    public int getPinCount(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        return frame == null ? 0 : Math.max(frame.pinCount.get(), 0);
+    }
+
+    /**
+     * Latch the frame holding the page, in shared mode for reading the page
+     * image or in exclusive mode for modifying it. Latches are short-term:
+     * hold them only for the duration of one page operation, never across
+     * calls that may block on a transaction lock or into the BufferPool.
+     * The caller should have the page pinned.
+     *
+     * @param pid       the ID of the page to latch
+     * @param exclusive true for a write latch, false for a read latch
+     * @return the latch that was acquired; release it with {@link Lock#unlock()}
+     */
+    public Lock latchPage(PageId pid, boolean exclusive) {
+        Frame frame = pageTable.get(pid);
+        Lock latch;
+        if (frame == null) {
+            //页面不在bufferPool中，其他事务看不到它，不需要真正的latch
+            latch = new ReentrantLock();
         } else {
-            //更新page为最新(lru算法)
-            bufferPool.remove(pid);
-            bufferPool.put(pid, page);
-        }
-        //if (perm == Permissions.READ_ONLY) {
-        //    lockManager.getReadLock(pid, tid);
-        //} else if (perm == Permissions.READ_WRITE) {
-        //    lockManager.getWriteLock(pid, tid);
-        //}
-        return page;
+            latch = exclusive ? frame.latch.writeLock() : frame.latch.readLock();
+        }
+        latch.lock();
+        return latch;
+    }
+
+    /**
+     * Put the page into the buffer pool, replacing the cached version of the
+     * same page if there is one, or taking a free frame otherwise.
+     */
+    private synchronized Frame installPage(Page page) throws DbException {
+        PageId pid = page.getId();
+        Frame frame = pageTable.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty()) {
+                evictPage();
+            }
+            frame = useFreeFrame(page);
+        } else {
+            frame.page = page;
+            frame.touch();
+        }
+        return frame;
+    }
+
+    /**
+     * Put the page into a free frame, unpinned and with a usage count of zero.
+     */
+    private synchronized Frame useFreeFrame(Page page) {
+        Frame frame = freeFrames.poll();
+        frame.pid = page.getId();
+        frame.page = page;
+        frame.usage = 0;
+        frame.discarded = false;
+        frame.unflushed = false;
+        frame.pinCount.set(0);
+        pageTable.put(page.getId(), frame);
+        return frame;
+    }
+
+    /**
+     * Read pages into the buffer pool in the background, ahead of a scan that
+     * is about to need them: up to count pages, starting at first, where next
+     * gives the page after a page (the next page of a HeapFile, the right
+     * sibling of a BTreeLeafPage, ...) or null at the end of the scan. Pages
+     * already in the buffer pool are not read again.
+     * <p>
+     * No locks are taken: a page read ahead is what a miss would have read
+     * from disk, and the scan still locks it with getPage. Read-ahead only
+     * takes free frames or evicts clean unpinned pages, so it never writes a
+     * page, and pages it loads have a usage count of zero, so the ones the
+     * scan does not get to are the first to go. At most a quarter of the
+     * buffer pool is read ahead at a time.
+     *
+     * @return false if the buffer pool is too small to read ahead
+     */
+    public boolean readAhead(PageId first, int count, Function<Page, PageId> next) {
+        int max = Math.min(count, frames.length / 4);
+        if (max <= 0) {
+            return false;
+        }
+        READ_AHEAD.execute(() -> {
+            PageId pid = first;
+            try {
+                for (int i = 0; i < max && pid != null; i++) {
+                    Frame frame = pageTable.get(pid);
+                    Page page = frame == null ? null : frame.page;
+                    if (page == null) {
+                        long writes = diskWrites;
+                        if (!beginReadAhead(pid)) {
+                            return;
+                        }
+                        try {
+                            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                            if (!installReadAhead(page, writes)) {
+                                return;
+                            }
+                        } finally {
+                            endReadAhead(pid);
+                        }
+                    }
+                    pid = next.apply(page);
+                }
+            } catch (RuntimeException | DbException e) {
+                //预读只是提示，失败时由scan自己读取
+                BufferPoolDPrintf.print("read-ahead of " + pid + " stopped: " + e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Claim a page for read-ahead, so that a getPage missing on it waits for
+     * the read instead of reading the page a second time.
+     *
+     * @return false if the page is cached or already being read ahead
+     */
+    private synchronized boolean beginReadAhead(PageId pid) {
+        return !pageTable.containsKey(pid) && readingAhead.add(pid);
+    }
+
+    private synchronized void endReadAhead(PageId pid) {
+        readingAhead.remove(pid);
+        notifyAll();
+    }
+
+    /**
+     * Cache a page read ahead, unless a page was written or discarded while
+     * it was read, in which case it may be out of date and is dropped.
+     *
+     * @param writes the value of diskWrites before the page was read
+     * @return false if there is no frame to spare for read-ahead
+     */
+    private synchronized boolean installReadAhead(Page page, long writes) throws DbException {
+        if (writes != diskWrites || pageTable.containsKey(page.getId())) {
+            return true;
+        }
+        if (freeFrames.isEmpty() && !sweep(false)) {
+            return false;
+        }
+        page.markDirty(false, null);
+        useFreeFrame(page);
+        return true;
     }
 
     /**
@@ -344,6 +643,10 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * A commit of a transaction that began in the log also writes and
+     * forces its COMMIT record, before the locks are released, so no other
+     * transaction can see its updates until they are durable.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -359,39 +662,56 @@ public class BufferPool {
                 List<PageId> tidPages = lockManager.getTidPages(tid);
                 //List<PageId> tidPages = lockManager.getLockList(tid);
                 for (PageId pageId : tidPages) {
-                    Page page = bufferPool.get(pageId);
+                    Page page = getCachedPage(pageId);
                     if (page == null) continue;
-                    flushPage(pageId);
+                    if (force) {
+                        flushPage(pageId);
+                    } else {
+                        logPage(pageId);
+                    }
                     page.setBeforeImage();
                 }
+                //COMMIT记录force到磁盘之后才能释放锁，否则其他事务可能读到尚未持久化的提交
+                if (Database.getLogFile().isActive(tid)) {
+                    Database.getLogFile().logCommit(tid);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         } else {
             //When you abort, you should revert any changes made by the transaction
             //by restoring the page to its on-disk state.
-            try {
-                reloadPages(tid);
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
-            } catch (DbException e) {
-                e.printStackTrace();
+            if (steal) {
+                //STEAL模式下被换出的脏页已经写回disk，需要用日志中的before image撤销
+                try {
+                    Database.getLogFile().rollbackIfActive(tid);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
+            reloadPages(tid);
         }
         lockManager.close(tid);
+        unpinAll(tid);
         BufferPoolDPrintf.print(String.format("Transaction[%d] complete,will %s", tid.getId(),commit?"commit":"rollback"));
         //lockManager.releaseLocksOnTransaction(tid);
     }
 
-    private synchronized void reloadPages(TransactionId tid) throws TransactionAbortedException, DbException {
+    private synchronized void reloadPages(TransactionId tid) {
         List<PageId> tidPages = lockManager.getTidPages(tid);
         //List<PageId> tidPages = lockManager.getLockList(tid);
 
         for (PageId pageId : tidPages) {
-            Page page = getPage(tid, pageId, Permissions.READ_ONLY);
-            if (page.isDirty() != null) {
+            Frame frame = pageTable.get(pageId);
+            Page page = frame == null ? null : frame.page;
+            if (page != null && page.isDirty() != null) {
+                if (frame.unflushed) {
+                    //disk上还不是最新提交的版本，不能直接丢弃，回退到before image
+                    frame.page = page.getBeforeImage();
+                    continue;
+                }
                 //reload page
-                bufferPool.remove(pageId);
+                discardPage(pageId);
                 //try {
                 //    getPage(tid,pageId,Permissions.READ_ONLY);
                 //} catch (TransactionAbortedException e) {
@@ -426,7 +746,9 @@ public class BufferPool {
         List<Page> dirtyPages = dbFile.insertTuple(tid, t);
         for (Page dirtyPage : dirtyPages) {
             dirtyPage.markDirty(true,tid);
-            bufferPool.put(dirtyPage.getId(), dirtyPage);
+            installPage(dirtyPage);
+            //DbFile通过getPage拿到页面时pin住了它，操作完成后释放，脏页可以被STEAL换出
+            unpinPage(tid, dirtyPage.getId());
         }
     }
 
@@ -452,7 +774,9 @@ public class BufferPool {
         BufferPoolDPrintf.print(String.format("Transaction[%d] delete %s success", tid.getId(),t));
         for (Page dirtyPage : dirtyPages) {
             dirtyPage.markDirty(true, tid);
-            bufferPool.put(dirtyPage.getId(), dirtyPage);
+            installPage(dirtyPage);
+            //DbFile通过getPage拿到页面时pin住了它，操作完成后释放，脏页可以被STEAL换出
+            unpinPage(tid, dirtyPage.getId());
         }
     }
 
@@ -466,7 +790,7 @@ public class BufferPool {
         // not necessary for lab1
         //List<PageId> tidPages = lockManager.getTidPages(tid);
         //List<PageId> tidPages = lockManager.getLockList(tid);
-        for (PageId pageId : bufferPool.keySet()) {
+        for (PageId pageId : pageTable.keySet()) {
             flushPage(pageId);
         }
     }
@@ -479,11 +803,45 @@ public class BufferPool {
      * <p>
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
+     * <p>
+     * If the page is still pinned, its frame is only reused after the last
+     * pin is released, so holders keep seeing a stable page image.
      */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        bufferPool.remove(pid);
+        diskWrites++;
+        Frame frame = pageTable.remove(pid);
+        if (frame == null) {
+            return;
+        }
+        if (frame.pinCount.compareAndSet(0, UNPINNABLE)) {
+            freeFrame(frame);
+        } else {
+            frame.discarded = true;
+        }
+    }
+
+    /**
+     * Return a frame that is no longer in the page table to the free list.
+     * The frame must already be unpinnable.
+     */
+    private synchronized void freeFrame(Frame frame) {
+        frame.pid = null;
+        frame.page = null;
+        frame.usage = 0;
+        frame.discarded = false;
+        frame.unflushed = false;
+        frame.recLSN = 0;
+        freeFrames.add(frame);
+    }
+
+    /**
+     * @return the cached version of the page, or null if it is not in the buffer pool
+     */
+    private Page getCachedPage(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        return frame == null ? null : frame.page;
     }
 
     /**
@@ -494,16 +852,175 @@ public class BufferPool {
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = bufferPool.get(pid);
+        Frame frame = pageTable.get(pid);
+        Page page = frame == null ? null : frame.page;
+        if (page == null) return;
+        TransactionId transactionId = page.isDirty();
+        if (transactionId == null && !frame.unflushed) return;
+
+        Lock latch = latchPage(pid, false);
+        try {
+            if (transactionId != null) {
+                Database.getLogFile().logWrite(transactionId,page.getBeforeImage(),page);
+                //日志只记录与before image的差异，下一条update要基于已经写到日志里的版本
+                page.setBeforeImage();
+            }
+            //WAL：页面写回之前，它的update日志必须已经落盘
+            Database.getLogFile().force();
+            diskWrites++;
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            dbFile.writePage(page);
+            page.markDirty(false, null);
+            frame.unflushed = false;
+            frame.recLSN = 0;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * NO FORCE commit of a page: append its update record to the log
+     * without forcing it, and keep the page in the buffer pool until it is
+     * written back by evictPage or flushPage.
+     *
+     * @param pid an ID indicating the page to log
+     */
+    private synchronized void logPage(PageId pid) throws IOException {
+        Frame frame = pageTable.get(pid);
+        Page page = frame == null ? null : frame.page;
         if (page == null) return;
         TransactionId transactionId = page.isDirty();
         if (transactionId == null) return;
 
-        Database.getLogFile().logWrite(transactionId,page.getBeforeImage(),page);
-        Database.getLogFile().force();
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        dbFile.writePage(page);
-        page.markDirty(false, null);
+        Lock latch = latchPage(pid, false);
+        try {
+            long offset = Database.getLogFile().logWrite(transactionId, page.getBeforeImage(), page);
+            page.markDirty(false, null);
+            if (!frame.unflushed) {
+                frame.recLSN = offset;
+                frame.unflushed = true;
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return the pages whose committed changes are not on disk yet, mapped
+     * to the offset of the first log record that has to be redone for them
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        Map<PageId, Long> dirtyPages = new HashMap<>();
+        for (Frame frame : frames) {
+            PageId pid = frame.pid;
+            if (frame.unflushed && pid != null) {
+                dirtyPages.put(pid, frame.recLSN);
+            }
+        }
+        return dirtyPages;
+    }
+
+    /**
+     * Move the recLSNs of the pages whose committed changes are not on disk
+     * back by the given number of bytes, after the log has dropped that
+     * many bytes from its start. Called by LogFile.logTruncate.
+     */
+    synchronized void shiftRecLSNs(long shift) {
+        for (Frame frame : frames) {
+            if (frame.unflushed) {
+                frame.recLSN -= shift;
+            }
+        }
+    }
+
+    /**
+     * Start a daemon thread that trickles committed pages (see
+     * {@link #setForcePolicy}) to disk in the background, so that eviction
+     * and checkpoints rarely find pages that still need to be written.
+     * Pages some transaction holds a write lock on are skipped.
+     *
+     * @param intervalMillis how long the writer sleeps between two rounds
+     * @param pagesPerRound  the maximum number of pages written in a round
+     */
+    public synchronized void startPageWriter(long intervalMillis, int pagesPerRound) {
+        if (pageWriter != null) {
+            return;
+        }
+        pageWriter = new Thread(() -> {
+            TransactionId writerTid = new TransactionId();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    writeBackPages(writerTid, pagesPerRound);
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "page-writer");
+        pageWriter.setDaemon(true);
+        pageWriter.start();
+    }
+
+    /**
+     * Stop the thread started by {@link #startPageWriter} and wait for it
+     * to finish its current round.
+     */
+    public void stopPageWriter() {
+        Thread writer;
+        synchronized (this) {
+            writer = pageWriter;
+            pageWriter = null;
+        }
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * One round of the page writer: write out up to max committed pages,
+     * oldest log record first. The writer takes a shared lock on each page
+     * without waiting, so it never writes a page a transaction is modifying,
+     * and holds the BufferPool only for the write of a single page.
+     *
+     * @return the number of pages written
+     */
+    int writeBackPages(TransactionId writerTid, int max) throws IOException {
+        List<Frame> candidates = new ArrayList<>();
+        for (Frame frame : frames) {
+            if (frame.unflushed && frame.pid != null) {
+                candidates.add(frame);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(f -> f.recLSN));
+        int written = 0;
+        for (Frame frame : candidates) {
+            if (written >= max) {
+                break;
+            }
+            PageId pid = frame.pid;
+            if (pid == null || !lockManager.tryLock(pid, writerTid, true)) {
+                continue;
+            }
+            try {
+                synchronized (this) {
+                    Page page = frame.page;
+                    if (pid.equals(frame.pid) && frame.unflushed && page != null && page.isDirty() == null) {
+                        flushPage(pid);
+                        written++;
+                    }
+                }
+            } finally {
+                lockManager.unlock(pid, writerTid);
+            }
+        }
+        return written;
     }
 
     /**
@@ -522,33 +1039,70 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * Victims are chosen with a CLOCK sweep: the hand skips pinned and dirty
+     * pages, gives pages with a non-zero usage count another chance by
+     * decrementing it, and evicts the first such page whose count is zero.
+     * <p>
+     * If every unpinned page needs to be written, a second sweep writes out
+     * and evicts the first one that may go to disk: a page committed under
+     * NO FORCE, or in STEAL mode a dirty page that can be undone from the
+     * log. In NO STEAL mode uncommitted dirty pages are never evicted.
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        Page page = bufferPool.entrySet().iterator().next().getValue();
-        if (page.isDirty() != null) {
-            ////脏页，置换前需要flush到disk上
-            //try {
-            //    flushPage(page.getId());
-            //} catch (IOException e) {
-            //    e.printStackTrace();
-            //}
-
-            //lab4 实现NO STEAL，不可以淘汰脏页
-            //寻找一个非脏页进行evict
-            Iterator<Page> iterator = bufferPool.values().iterator();
-            while (iterator.hasNext()) {
-                page = iterator.next();
-                if (page.isDirty() == null) {
-                    discardPage(page.getId());
-                    return;
+        if (sweep(false) || sweep(true)) {
+            return;
+        }
+        throw new DbException("No page that is neither dirty nor pinned can be evicted");
+    }
+
+    /**
+     * Run the clock hand until a victim is evicted.
+     *
+     * @param writeBack whether pages that must be written first are candidates
+     * @return true if a frame was freed
+     */
+    private boolean sweep(boolean writeBack) throws DbException {
+        for (int step = 0; step < frames.length * (MAX_USAGE + 1); step++) {
+            Frame frame = frames[clockHand];
+            clockHand = (clockHand + 1) % frames.length;
+            Page page = frame.page;
+            if (page == null || frame.discarded || frame.pinCount.get() > 0) {
+                continue;
+            }
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null && !(writeBack && steal && Database.getLogFile().isActive(dirtier))) {
+                continue;
+            }
+            if (dirtier == null && frame.unflushed && !writeBack) {
+                continue;
+            }
+            if (frame.usage > 0) {
+                frame.usage--;
+                continue;
+            }
+            if (!frame.pinCount.compareAndSet(0, UNPINNABLE)) {
+                //刚刚被其他线程pin住
+                continue;
+            }
+            if (dirtier != null || frame.unflushed) {
+                //WAL：flushPage先写update日志并force，再写回页面
+                try {
+                    flushPage(frame.pid);
+                } catch (IOException e) {
+                    frame.pinCount.set(0);
+                    throw new DbException("could not write out dirty page " + frame.pid + ": " + e.getMessage());
                 }
+                BufferPoolDPrintf.print(String.format("page(%d-%d) written back on eviction",
+                        frame.pid.getPageNumber(), frame.pid.getTableId()));
             }
-            throw new DbException("No page that is not dirty can be evicted");
+            pageTable.remove(frame.pid, frame);
+            freeFrame(frame);
+            return true;
         }
-        //删除
-        discardPage(page.getId());
+        return false;
     }
 
 }
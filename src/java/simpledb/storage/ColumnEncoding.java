@@ -0,0 +1,298 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * The encodings of the values on a page of a ColumnFile. Values are written
+ * in the variable-length format of their type (see Type#serializeVariable).
+ * ColumnFile picks for every page the encoding that fits the most values on
+ * it.
+ *
+ * @see ColumnFile
+ * @see ColumnPage
+ */
+public enum ColumnEncoding {
+    /**
+     * Every value, one after the other.
+     */
+    PLAIN {
+        @Override
+        int encodedSize(Type type, Field[] values, int from, int to) {
+            int size = 0;
+            for (int i = from; i < to; i++) {
+                size += type.getVariableLen(values[i]);
+            }
+            return size;
+        }
+
+        @Override
+        void encode(Type type, Field[] values, int from, int to, DataOutputStream dos) throws IOException {
+            for (int i = from; i < to; i++) {
+                type.serializeVariable(values[i], dos);
+            }
+        }
+
+        @Override
+        Field[] decode(Type type, DataInputStream dis, int count) throws IOException, ParseException {
+            Field[] values = new Field[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = type.parseVariable(dis);
+            }
+            return values;
+        }
+    },
+
+    /**
+     * Run-length encoding: the number of runs, then every run of equal
+     * values as the value and the length of the run. Suits sorted or
+     * constant columns.
+     */
+    RLE {
+        @Override
+        int encodedSize(Type type, Field[] values, int from, int to) {
+            int size = 4;
+            for (int i = from; i < to; i++) {
+                if (i == from || !values[i].equals(values[i - 1])) {
+                    size += type.getVariableLen(values[i]) + 4;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        void encode(Type type, Field[] values, int from, int to, DataOutputStream dos) throws IOException {
+            List<Integer> starts = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (i == from || !values[i].equals(values[i - 1])) {
+                    starts.add(i);
+                }
+            }
+            starts.add(to);
+            dos.writeInt(starts.size() - 1);
+            for (int r = 0; r < starts.size() - 1; r++) {
+                type.serializeVariable(values[starts.get(r)], dos);
+                dos.writeInt(starts.get(r + 1) - starts.get(r));
+            }
+        }
+
+        @Override
+        Field[] decode(Type type, DataInputStream dis, int count) throws IOException, ParseException {
+            Field[] values = new Field[count];
+            int runs = dis.readInt();
+            int pos = 0;
+            for (int r = 0; r < runs; r++) {
+                Field value = type.parseVariable(dis);
+                int length = dis.readInt();
+                if (pos + length > count) {
+                    throw new IOException("run past the end of the page");
+                }
+                Arrays.fill(values, pos, pos + length, value);
+                pos += length;
+            }
+            return values;
+        }
+    },
+
+    /**
+     * Dictionary encoding: the distinct values of the page, then the index
+     * of every value in them, packed in as few bits as the dictionary
+     * needs. Suits columns with few distinct values.
+     */
+    DICTIONARY {
+        @Override
+        int encodedSize(Type type, Field[] values, int from, int to) {
+            Set<Field> distinct = new HashSet<>();
+            int size = 4 + 1;
+            for (int i = from; i < to; i++) {
+                if (distinct.add(values[i])) {
+                    size += type.getVariableLen(values[i]);
+                }
+            }
+            return size + packedSize(to - from, bitWidth(distinct.size() - 1));
+        }
+
+        @Override
+        void encode(Type type, Field[] values, int from, int to, DataOutputStream dos) throws IOException {
+            Map<Field, Integer> dictionary = new LinkedHashMap<>();
+            long[] codes = new long[to - from];
+            for (int i = from; i < to; i++) {
+                Integer code = dictionary.get(values[i]);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(values[i], code);
+                }
+                codes[i - from] = code;
+            }
+            dos.writeInt(dictionary.size());
+            for (Field value : dictionary.keySet()) {
+                type.serializeVariable(value, dos);
+            }
+            int bits = bitWidth(dictionary.size() - 1);
+            dos.writeByte(bits);
+            writePacked(codes, bits, dos);
+        }
+
+        @Override
+        Field[] decode(Type type, DataInputStream dis, int count) throws IOException, ParseException {
+            Field[] dictionary = new Field[dis.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = type.parseVariable(dis);
+            }
+            long[] codes = readPacked(count, dis.readByte(), dis);
+            Field[] values = new Field[count];
+            for (int i = 0; i < count; i++) {
+                if (codes[i] >= dictionary.length) {
+                    throw new IOException("dictionary code out of range");
+                }
+                values[i] = dictionary[(int) codes[i]];
+            }
+            return values;
+        }
+    },
+
+    /**
+     * Frame of reference, for INT_TYPE only: the smallest value of the page,
+     * then the difference of every value to it, packed in as few bits as
+     * the largest difference needs. Suits columns of values close together.
+     */
+    FRAME_OF_REFERENCE {
+        @Override
+        boolean supports(Type type) {
+            return type == Type.INT_TYPE;
+        }
+
+        @Override
+        int encodedSize(Type type, Field[] values, int from, int to) {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int v = ((IntField) values[i]).getValue();
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            return 4 + 1 + packedSize(to - from, bitWidth(max - min));
+        }
+
+        @Override
+        void encode(Type type, Field[] values, int from, int to, DataOutputStream dos) throws IOException {
+            int min = Integer.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, ((IntField) values[i]).getValue());
+            }
+            long[] deltas = new long[to - from];
+            long max = 0;
+            for (int i = from; i < to; i++) {
+                deltas[i - from] = (long) ((IntField) values[i]).getValue() - min;
+                max = Math.max(max, deltas[i - from]);
+            }
+            int bits = bitWidth(max);
+            dos.writeInt(min);
+            dos.writeByte(bits);
+            writePacked(deltas, bits, dos);
+        }
+
+        @Override
+        Field[] decode(Type type, DataInputStream dis, int count) throws IOException {
+            int min = dis.readInt();
+            long[] deltas = readPacked(count, dis.readByte(), dis);
+            Field[] values = new Field[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = new IntField((int) (min + deltas[i]));
+            }
+            return values;
+        }
+    };
+
+    /**
+     * @return whether values of the given type can be stored in this
+     * encoding
+     */
+    boolean supports(Type type) {
+        return true;
+    }
+
+    /**
+     * @return the number of bytes encode writes for values[from, to)
+     */
+    abstract int encodedSize(Type type, Field[] values, int from, int to);
+
+    /**
+     * Write values[from, to) in this encoding.
+     */
+    abstract void encode(Type type, Field[] values, int from, int to, DataOutputStream dos) throws IOException;
+
+    /**
+     * Read count values written by encode.
+     */
+    abstract Field[] decode(Type type, DataInputStream dis, int count) throws IOException, ParseException;
+
+    /**
+     * @return the number of bits needed for numbers from 0 to max
+     */
+    static int bitWidth(long max) {
+        return max <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    static int packedSize(int count, int bits) {
+        return (int) (((long) count * bits + 7) / 8);
+    }
+
+    /**
+     * Write the low bits bits of every number, most significant bit first,
+     * without padding between them.
+     */
+    static void writePacked(long[] numbers, int bits, DataOutputStream dos) throws IOException {
+        long buffer = 0;
+        int buffered = 0;
+        for (long n : numbers) {
+            for (int shift = bits - 1; shift >= 0; shift--) {
+                buffer = (buffer << 1) | ((n >>> shift) & 1);
+                if (++buffered == 8) {
+                    dos.writeByte((int) buffer);
+                    buffer = 0;
+                    buffered = 0;
+                }
+            }
+        }
+        if (buffered > 0) {
+            dos.writeByte((int) (buffer << (8 - buffered)));
+        }
+    }
+
+    /**
+     * Read count numbers written by writePacked. The packed bytes are read as
+     * big-endian longs, and every number is cut from the one or two longs it
+     * spans with shifts, rather than assembled a bit at a time.
+     */
+    static long[] readPacked(int count, int bits, DataInputStream dis) throws IOException {
+        if (bits < 0 || bits > 64) {
+            throw new IOException("bit width " + bits + " out of range");
+        }
+        long[] numbers = new long[count];
+        byte[] packed = new byte[packedSize(count, bits)];
+        dis.readFully(packed);
+        if (bits == 0) {
+            return numbers;
+        }
+        // 补齐到8字节的整数倍
+        long[] words = new long[(packed.length + 7) / 8];
+        ByteBuffer.wrap(Arrays.copyOf(packed, words.length * 8)).asLongBuffer().get(words);
+        long bit = 0;
+        for (int i = 0; i < count; i++, bit += bits) {
+            int w = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            long n = words[w] << offset;
+            if (offset + bits > 64) {
+                n |= words[w + 1] >>> (64 - offset);
+            }
+            numbers[i] = n >>> (64 - bits);
+        }
+        return numbers;
+    }
+}
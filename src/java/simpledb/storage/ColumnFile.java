@@ -0,0 +1,450 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column: every column
+ * is a run of consecutive ColumnPages holding its values in row order, each
+ * page in the ColumnEncoding that fits the most values on it. A scan only
+ * reads the pages of the columns it needs (see iterator(tid, columns) and
+ * ColumnScan), so a query on a few columns of a wide table reads a fraction
+ * of its pages, and compressible columns take few pages to begin with.
+ * <p>
+ * Page 0 of the file is a header: the number of rows, the number of
+ * columns, and for every column the number of its first page and how many
+ * pages it has. The column pages follow.
+ * <p>
+ * A ColumnFile is written in one go from the rows of a table with
+ * {@link #write}, and is read-only after that: insertTuple and deleteTuple
+ * throw a DbException. Tables that change should be HeapFiles.
+ *
+ * @see ColumnPage
+ * @see simpledb.execution.ColumnScan
+ */
+public class ColumnFile implements DbFile {
+    private final File file;
+    private final TupleDesc td;
+    private final DbFileChannel channel;
+
+    // 文件头，第一次用到时读入；文件写好后不再改变
+    private int numRows = -1;  // protected by this
+    private int[] firstPage;  // protected by this
+    private int[] numPages;  // protected by this
+
+    /**
+     * Open a ColumnFile written by {@link #write}.
+     *
+     * @param f  the file that stores the columns
+     * @param td the TupleDesc of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.channel = new DbFileChannel(f);
+    }
+
+    /**
+     * Write the given rows to f as a ColumnFile of the given TupleDesc,
+     * replacing what f holds.
+     * <p>
+     * The rows are read once and not kept: every column buffers its values
+     * until it has enough for a page, and writes its pages to a temporary
+     * file, so memory use does not grow with the table. The temporary files
+     * are copied after the header when all rows are read.
+     *
+     * @throws IOException if a value does not fit on a page
+     */
+    public static void write(File f, TupleDesc td, Iterator<Tuple> rows) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (ColumnPage.HEADER_SIZE > pageSize || 8 + 8 * td.numFields() > pageSize) {
+            throw new IOException("page size " + pageSize + " too small for a ColumnFile");
+        }
+        ColumnWriter[] columns = new ColumnWriter[td.numFields()];
+        try {
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = new ColumnWriter(td.getFieldType(c), f);
+            }
+            int numRows = 0;
+            while (rows.hasNext()) {
+                Tuple t = rows.next();
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c].add(t.getField(c));
+                }
+                numRows++;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(pageSize);
+            header.putInt(numRows).putInt(td.numFields());
+            int first = 1;
+            for (ColumnWriter column : columns) {
+                column.finish();
+                header.putInt(first).putInt(column.pages);
+                first += column.pages;
+            }
+            try (FileOutputStream os = new FileOutputStream(f)) {
+                os.write(header.array());
+                for (ColumnWriter column : columns) {
+                    Files.copy(column.temp.toPath(), os);
+                }
+            }
+        } finally {
+            for (ColumnWriter column : columns) {
+                if (column != null) {
+                    column.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The values of one column being written: they are buffered until there
+     * are as many as a page can hold at most, and the full pages are then
+     * written to a temporary file, leaving the rest for the next page.
+     */
+    private static class ColumnWriter {
+        private final Type type;
+        private final File temp;
+        private final OutputStream out;
+        private final int maxValues;  // 一页最多能放的值的个数
+        private final Field[] buffer;
+        private int size = 0;
+        private int pages = 0;
+
+        ColumnWriter(Type type, File f) throws IOException {
+            this.type = type;
+            this.temp = File.createTempFile("column", ".tmp", f.getAbsoluteFile().getParentFile());
+            this.out = new BufferedOutputStream(new FileOutputStream(temp));
+            // 编码为0位时一页能放任意多个值，按每个值至少1位限制
+            this.maxValues = BufferPool.getPageSize() * 8;
+            this.buffer = new Field[2 * maxValues];
+        }
+
+        void add(Field value) throws IOException {
+            buffer[size++] = value;
+            if (size == buffer.length) {
+                // 缓冲的值够一页最多的个数时，页面和一次写完整列时相同
+                int from = 0;
+                while (size - from >= maxValues) {
+                    from = writePage(from, size);
+                }
+                System.arraycopy(buffer, from, buffer, 0, size - from);
+                Arrays.fill(buffer, size - from, size, null);
+                size -= from;
+            }
+        }
+
+        /**
+         * Write the values that are left and close the temporary file.
+         */
+        void finish() throws IOException {
+            for (int from = 0; from < size; ) {
+                from = writePage(from, size);
+            }
+            size = 0;
+            out.close();
+        }
+
+        /**
+         * Fill a page with as many values from buffer[from, to) as fit in
+         * the most compact encoding for them.
+         *
+         * @return the index of the first value not written
+         */
+        private int writePage(int from, int to) throws IOException {
+            int pageSize = BufferPool.getPageSize();
+            int capacity = pageSize - ColumnPage.HEADER_SIZE;
+            int max = Math.min(to - from, maxValues);
+            if (encodedSize(type, buffer, from, from + 1).getValue() > capacity) {
+                throw new IOException("value " + buffer[from] + " does not fit on a page");
+            }
+            // 各种编码的大小都随值的个数单调增长，二分找出能放下的最多个数
+            int lo = 1, hi = max;
+            while (lo < hi) {
+                int mid = lo + (hi - lo + 1) / 2;
+                if (encodedSize(type, buffer, from, from + mid).getValue() <= capacity) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            ColumnEncoding encoding = encodedSize(type, buffer, from, from + lo).getKey();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(encoding.ordinal());
+            dos.writeInt(lo);
+            encoding.encode(type, buffer, from, from + lo, dos);
+            dos.flush();
+            out.write(Arrays.copyOf(baos.toByteArray(), pageSize));
+            pages++;
+            return from + lo;
+        }
+
+        /**
+         * Close and delete the temporary file.
+         */
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return the most compact encoding for column[from, to) and its size
+     */
+    private static Map.Entry<ColumnEncoding, Integer> encodedSize(Type type, Field[] column, int from, int to) {
+        ColumnEncoding best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (ColumnEncoding encoding : ColumnEncoding.values()) {
+            if (encoding.supports(type)) {
+                int size = encoding.encodedSize(type, column, from, to);
+                if (size < bestSize) {
+                    best = encoding;
+                    bestSize = size;
+                }
+            }
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(best, bestSize);
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash of the
+     * absolute path of its file like a HeapFile's.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private synchronized void readHeader() throws IOException {
+        if (numRows >= 0) {
+            return;
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        channel.read(data, 0);
+        ByteBuffer header = ByteBuffer.wrap(data);
+        int rows = header.getInt();
+        if (header.getInt() != td.numFields()) {
+            throw new IOException(file + " is not a ColumnFile of " + td);
+        }
+        firstPage = new int[td.numFields()];
+        numPages = new int[td.numFields()];
+        for (int c = 0; c < td.numFields(); c++) {
+            firstPage[c] = header.getInt();
+            numPages[c] = header.getInt();
+        }
+        numRows = rows;
+    }
+
+    /**
+     * @return the number of rows of the table
+     */
+    public synchronized int numRows() {
+        try {
+            readHeader();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return numRows;
+    }
+
+    /**
+     * @return the number of pages of the file, including the header page
+     */
+    public synchronized int numPages() {
+        numRows();
+        int pages = 1;
+        for (int c = 0; numPages != null && c < numPages.length; c++) {
+            pages += numPages[c];
+        }
+        return pages;
+    }
+
+    /**
+     * @return the number of pages of the given column
+     */
+    public synchronized int numPages(int column) {
+        numRows();
+        return numPages == null ? 0 : numPages[column];
+    }
+
+    private synchronized int firstPage(int column) {
+        numRows();
+        return firstPage[column];
+    }
+
+    /**
+     * @return the column the given page belongs to
+     */
+    private synchronized int columnOf(int pgNo) {
+        numRows();
+        for (int c = 0; numPages != null && c < numPages.length; c++) {
+            if (pgNo >= firstPage[c] && pgNo < firstPage[c] + numPages[c]) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("page " + pgNo + " is not a column page of " + file);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int column = columnOf(pid.getPageNumber());
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.read(data, (long) pid.getPageNumber() * data.length);
+            return new ColumnPage((HeapPageId) pid, data, td.getFieldType(column));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid, e);
+        }
+    }
+
+    /**
+     * ColumnPages are never dirty, so this only rewrites a page as it is.
+     */
+    public void writePage(Page page) throws IOException {
+        channel.write(page.getPageData(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+    }
+
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("ColumnFile is read-only; write it again with ColumnFile.write");
+    }
+
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("ColumnFile is read-only; write it again with ColumnFile.write");
+    }
+
+    /**
+     * @return an iterator over all rows of the table
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = c;
+        }
+        return iterator(tid, columns);
+    }
+
+    /**
+     * Return an iterator over the given columns of all rows of the table,
+     * which only reads the pages of those columns. The tuples it returns
+     * have the TupleDesc of projectTupleDesc(columns).
+     *
+     * @param columns the indexes of the columns, in the order they are
+     *                wanted in the tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(tid, columns);
+    }
+
+    /**
+     * @return the TupleDesc of the given columns of the table
+     */
+    public TupleDesc projectTupleDesc(int[] columns) {
+        return td.project(columns);
+    }
+
+    /**
+     * Reads the pages of the projected columns side by side, a page of
+     * values of each column at a time.
+     */
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final TupleDesc projected;
+        private final ColumnPage[] pages;  // 每一列当前被pin住的页面
+        private final int[] pageNos;  // 每一列当前页在列中的序号
+        private final int[] positions;  // 每一列在当前页中的下一个值
+        private int row = -1;  // -1表示未打开
+        private int rows;
+
+        ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns.clone();
+            this.projected = projectTupleDesc(columns);
+            this.pages = new ColumnPage[columns.length];
+            this.pageNos = new int[columns.length];
+            this.positions = new int[columns.length];
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            row = 0;
+            rows = numRows();
+            Arrays.fill(pageNos, -1);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (row < 0 || row >= rows) {
+                return null;
+            }
+            Tuple t = new Tuple(projected);
+            for (int i = 0; i < columns.length; i++) {
+                if (pages[i] == null || positions[i] == pages[i].getNumValues()) {
+                    nextPage(i);
+                }
+                t.setField(i, pages[i].getValue(positions[i]++));
+            }
+            row++;
+            return t;
+        }
+
+        private void nextPage(int i) throws DbException, TransactionAbortedException {
+            unpin(i);
+            int column = columns[i];
+            if (++pageNos[i] >= numPages(column)) {
+                throw new DbException("column " + column + " of " + file + " ends before its last row");
+            }
+            HeapPageId pid = new HeapPageId(getId(), firstPage(column) + pageNos[i]);
+            pages[i] = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            positions[i] = 0;
+        }
+
+        private void unpin(int i) {
+            if (pages[i] != null) {
+                Database.getBufferPool().unpinPage(tid, pages[i].getId());
+                pages[i] = null;
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            for (int i = 0; i < pages.length; i++) {
+                unpin(i);
+            }
+            row = -1;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * A page of one column of a ColumnFile: the values of the column for a run
+ * of consecutive rows, in one of the ColumnEncodings. The page starts with
+ * the encoding (one byte) and the number of values (an int); the encoded
+ * values follow.
+ * <p>
+ * ColumnFiles are written once, so a ColumnPage is never modified; the
+ * values are decoded when the page is read.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+    static final int HEADER_SIZE = 1 + 4;
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final ColumnEncoding encoding;
+    private final Field[] values;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @param type the type of the column the page belongs to
+     * @throws IOException if the data is not a valid page of the column
+     */
+    public ColumnPage(HeapPageId id, byte[] data, Type type) throws IOException {
+        this.pid = id;
+        this.data = data;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int ordinal = dis.readUnsignedByte();
+        if (ordinal >= ColumnEncoding.values().length) {
+            throw new IOException("unknown encoding " + ordinal + " in " + id);
+        }
+        this.encoding = ColumnEncoding.values()[ordinal];
+        int count = dis.readInt();
+        try {
+            this.values = encoding.decode(type, dis, count);
+        } catch (ParseException e) {
+            throw new IOException("parsing error in " + id, e);
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the encoding of the values on this page
+     */
+    public ColumnEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of values (rows) on this page
+     */
+    public int getNumValues() {
+        return values.length;
+    }
+
+    /**
+     * @return the value of the i-th row on this page
+     */
+    public Field getValue(int i) {
+        return values[i];
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * ColumnPages are never modified, so they are never dirty.
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    public ColumnPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
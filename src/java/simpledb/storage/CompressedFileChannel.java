@@ -0,0 +1,502 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A DbFileChannel that stores its file compressed. Callers see a logical
+ * file and read and write pages at their usual offsets; the logical file is
+ * cut into blocks (one page each, after an optional header region of origin
+ * bytes such as the root pointer page of a BTreeFile), and every block is
+ * stored compressed with Lz4 in the physical file.
+ * <p>
+ * A block takes whole sectors of SECTOR_SIZE bytes in the physical file.
+ * Where each block is stored is kept in a page map next to the file
+ * (mapFileFor): a header with the block size, the origin, the size of the
+ * logical file and the number of blocks, then for every block its first
+ * sector, the number of sectors it has, and the length of its stored image.
+ * Blocks of zeros, like the empty pages a HeapFile preallocates, take no
+ * space at all; blocks that do not compress are stored as they are.
+ * <p>
+ * Blocks are never overwritten in place. A block that is written goes to
+ * free sectors and is forced to disk, then a record with its new entry and
+ * a checksum is appended to the page map and forced, and only then are its
+ * old sectors freed. A crash at any point leaves every block either at its
+ * old or at its new location; a torn record at the end of the map fails its
+ * checksum and is ignored. This costs two forces per write. Once the
+ * map holds more records than blocks it is rewritten to a temporary file
+ * that replaces it with an atomic rename.
+ * <p>
+ * The stored images of blocks are also kept in the compressed tier of the
+ * buffer pool (see CompressedPageCache), so pages evicted from the buffer
+ * pool can be read again without going to disk.
+ * <p>
+ * A compressed file cannot be memory mapped; mapPage returns null, and
+ * callers fall back to read. Reads run concurrently with each other and
+ * exclusively of writes.
+ *
+ * @Threadsafe
+ * @see Lz4
+ */
+public class CompressedFileChannel extends DbFileChannel {
+    /**
+     * Unit of allocation in the physical file
+     */
+    public static final int SECTOR_SIZE = 256;
+    // 页表头：块大小、origin、逻辑文件长度、块数
+    private static final int MAP_HEADER_SIZE = 4 + 4 + 8 + 4;
+    // 每个块：起始扇区、扇区数、存储的长度
+    private static final int ENTRY_SIZE = 4 + 4 + 4;
+    // 追加的页表记录：块号、页表项、逻辑文件长度、校验和
+    private static final int RECORD_SIZE = 4 + ENTRY_SIZE + 8 + 4;
+    // 记录数超过块数和这个值时重写页表
+    private static final int MIN_RECORDS = 64;
+
+    private final File file;
+    private final DbFileChannel map;
+    // 读共享，写和读取页表独占
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+    private int blockSize;  // protected by lock
+    private int origin;  // protected by lock
+    private long logicalSize;  // protected by lock
+    private int numBlocks;  // protected by lock
+    private int[] starts = new int[0];  // protected by lock
+    private int[] capacities = new int[0];  // protected by lock
+    private int[] lengths = new int[0];  // protected by lock
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();  // protected by lock, 空闲扇区：起点->个数
+    private int endSector;  // protected by lock
+    private long mapEnd;  // protected by lock, 页表中最后一条有效记录之后的位置
+    private int mapRecords;  // protected by lock, 上次重写页表之后追加的记录数
+    private final AtomicLong blockReads = new AtomicLong();
+
+    /**
+     * @param file      the physical file
+     * @param blockSize the size of the blocks, normally the page size
+     * @param origin    the size of the header region before the first block;
+     *                  0 if the file has none
+     */
+    public CompressedFileChannel(File file, int blockSize, int origin) {
+        super(file);
+        this.file = file;
+        this.map = new DbFileChannel(mapFileFor(file));
+        this.blockSize = blockSize;
+        this.origin = origin;
+    }
+
+    /**
+     * @return the page map of the given compressed file
+     */
+    public static File mapFileFor(File f) {
+        return new File(f.getPath() + ".pmap");
+    }
+
+    private CompressedPageCache cache() {
+        return Database.getBufferPool().compressedCache();
+    }
+
+    /**
+     * Read the page map on first use. The block size and origin recorded in
+     * it win over those passed to the constructor.
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                readMap();
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void readMap() throws IOException {
+        File mapFile = mapFileFor(file);
+        if (!mapFile.exists() || map.size() == 0) {
+            if (file.exists() && super.size() > 0) {
+                throw new IOException(file + " has no page map, it is not a compressed file");
+            }
+            logicalSize = 0;
+            writeSnapshot();
+            return;
+        }
+        byte[] data = new byte[(int) map.size()];
+        if (data.length < MAP_HEADER_SIZE || map.read(data, 0) < data.length) {
+            throw new IOException("truncated page map of " + file);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        blockSize = buf.getInt();
+        origin = buf.getInt();
+        logicalSize = buf.getLong();
+        int blocks = buf.getInt();
+        if (buf.remaining() < blocks * ENTRY_SIZE) {
+            throw new IOException("truncated page map of " + file);
+        }
+        ensureBlocks(blocks);
+        for (int b = 0; b < blocks; b++) {
+            starts[b] = buf.getInt();
+            capacities[b] = buf.getInt();
+            lengths[b] = buf.getInt();
+        }
+        numBlocks = blocks;
+
+        //重放追加的记录，直到文件末尾或者第一条不完整的记录
+        mapRecords = 0;
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= RECORD_SIZE) {
+            int at = buf.position();
+            crc.reset();
+            crc.update(data, at, RECORD_SIZE - 4);
+            buf.position(at + RECORD_SIZE - 4);
+            if (buf.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            buf.position(at);
+            int b = buf.getInt();
+            ensureBlocks(b + 1);
+            starts[b] = buf.getInt();
+            capacities[b] = buf.getInt();
+            lengths[b] = buf.getInt();
+            logicalSize = buf.getLong();
+            buf.getInt();
+            mapRecords++;
+        }
+        mapEnd = buf.position();
+
+        //按起点排序已分配的扇区，其间的空隙就是空闲扇区
+        Integer[] order = new Integer[numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, Comparator.comparingInt(b -> starts[b]));
+        endSector = 0;
+        for (int b : order) {
+            if (capacities[b] == 0) {
+                continue;
+            }
+            if (starts[b] > endSector) {
+                free.put(endSector, starts[b] - endSector);
+            }
+            endSector = Math.max(endSector, starts[b] + capacities[b]);
+        }
+    }
+
+    private void ensureBlocks(int n) {
+        if (n > starts.length) {
+            int length = Math.max(n, starts.length * 2);
+            starts = Arrays.copyOf(starts, length);
+            capacities = Arrays.copyOf(capacities, length);
+            lengths = Arrays.copyOf(lengths, length);
+        }
+        numBlocks = Math.max(numBlocks, n);
+    }
+
+    /**
+     * Write the whole page map, without records, to a temporary file and
+     * rename it over the page map.
+     */
+    private void writeSnapshot() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(MAP_HEADER_SIZE + numBlocks * ENTRY_SIZE);
+        buf.putInt(blockSize).putInt(origin).putLong(logicalSize).putInt(numBlocks);
+        for (int b = 0; b < numBlocks; b++) {
+            buf.putInt(starts[b]).putInt(capacities[b]).putInt(lengths[b]);
+        }
+        buf.flip();
+        File mapFile = mapFileFor(file);
+        File tmp = new File(mapFile.getPath() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp.toPath(), mapFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        //旧的channel还指向被替换掉的文件
+        map.close();
+        mapEnd = buf.limit();
+        mapRecords = 0;
+    }
+
+    /**
+     * Append a record with the current entry of each of blocks [from, to)
+     * to the page map.
+     */
+    private void appendRecords(int from, int to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        for (int b = from; b < to; b++) {
+            int at = buf.position();
+            buf.putInt(b).putInt(starts[b]).putInt(capacities[b]).putInt(lengths[b]).putLong(logicalSize);
+            crc.reset();
+            crc.update(buf.array(), at, RECORD_SIZE - 4);
+            buf.putInt((int) crc.getValue());
+        }
+        map.write(buf.array(), mapEnd);
+        mapEnd += buf.capacity();
+        mapRecords += to - from;
+    }
+
+    private int firstBlock() {
+        return origin > 0 ? 1 : 0;
+    }
+
+    private int blockOf(long position) {
+        return position < origin ? 0 : firstBlock() + (int) ((position - origin) / blockSize);
+    }
+
+    private long blockStart(int b) {
+        return b < firstBlock() ? 0 : origin + (long) (b - firstBlock()) * blockSize;
+    }
+
+    private int blockLength(int b) {
+        return b < firstBlock() ? origin : blockSize;
+    }
+
+    /**
+     * @return the contents of the given block, decompressed
+     */
+    private byte[] readBlock(int b) throws IOException {
+        byte[] block = new byte[blockLength(b)];
+        if (b >= numBlocks || lengths[b] == 0) {
+            return block;
+        }
+        byte[] image = cache().get(this, b);
+        if (image == null) {
+            image = new byte[lengths[b]];
+            if (super.read(image, (long) starts[b] * SECTOR_SIZE) < image.length) {
+                throw new IOException("block " + b + " of " + file + " is past the end of the file");
+            }
+            blockReads.incrementAndGet();
+            cache().put(this, b, image);
+        }
+        if (image.length == block.length) {
+            //没有压缩的块
+            System.arraycopy(image, 0, block, 0, block.length);
+        } else {
+            Lz4.decompress(image, 0, image.length, block, 0, block.length);
+        }
+        return block;
+    }
+
+    /**
+     * Compress the given block and store it in free sectors. The sectors it
+     * had are not freed but added to retired, since the page map on disk
+     * still points to them.
+     */
+    private void writeBlock(int b, byte[] block, List<int[]> retired) throws IOException {
+        byte[] image = new byte[0];
+        if (!isZero(block)) {
+            byte[] compressed = new byte[block.length - 1];
+            int length = Lz4.compress(block, 0, block.length, compressed);
+            image = length < 0 ? block : Arrays.copyOf(compressed, length);
+        }
+        int needed = (image.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        ensureBlocks(b + 1);
+        if (capacities[b] > 0) {
+            retired.add(new int[]{starts[b], capacities[b]});
+        }
+        starts[b] = needed == 0 ? 0 : allocate(needed);
+        capacities[b] = needed;
+        lengths[b] = image.length;
+        if (image.length > 0) {
+            super.write(image, (long) starts[b] * SECTOR_SIZE);
+        }
+        cache().put(this, b, image);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte x : block) {
+            if (x != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take the smallest free extent that holds the given number of sectors,
+     * or sectors past the end of the file if there is none.
+     */
+    private int allocate(int sectors) {
+        Integer best = null;
+        for (Map.Entry<Integer, Integer> e : free.entrySet()) {
+            if (e.getValue() >= sectors && (best == null || e.getValue() < free.get(best))) {
+                best = e.getKey();
+            }
+        }
+        if (best == null) {
+            endSector += sectors;
+            return endSector - sectors;
+        }
+        int length = free.remove(best);
+        if (length > sectors) {
+            free.put(best + sectors, length - sectors);
+        }
+        return best;
+    }
+
+    private void release(int start, int sectors) {
+        if (sectors == 0) {
+            return;
+        }
+        //与相邻的空闲扇区合并
+        Map.Entry<Integer, Integer> before = free.floorEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            free.remove(before.getKey());
+            start = before.getKey();
+            sectors += before.getValue();
+        }
+        Integer after = free.get(start + sectors);
+        if (after != null) {
+            free.remove(start + sectors);
+            sectors += after;
+        }
+        free.put(start, sectors);
+    }
+
+    @Override
+    public int read(byte[] data, long position) throws IOException {
+        load();
+        lock.readLock().lock();
+        try {
+            int n = (int) Math.max(0, Math.min(data.length, logicalSize - position));
+            int done = 0;
+            while (done < n) {
+                long pos = position + done;
+                int b = blockOf(pos);
+                byte[] block = readBlock(b);
+                int offset = (int) (pos - blockStart(b));
+                int length = Math.min(n - done, block.length - offset);
+                System.arraycopy(block, offset, data, done, length);
+                done += length;
+            }
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] data, long position) throws IOException {
+        load();
+        if (data.length == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int done = 0;
+            int from = blockOf(position);
+            int to = blockOf(position + data.length - 1) + 1;
+            List<int[]> retired = new ArrayList<>();
+            while (done < data.length) {
+                long pos = position + done;
+                int b = blockOf(pos);
+                int offset = (int) (pos - blockStart(b));
+                int length = Math.min(data.length - done, blockLength(b) - offset);
+                byte[] block;
+                if (length == blockLength(b)) {
+                    block = Arrays.copyOfRange(data, done, done + length);
+                } else {
+                    block = readBlock(b);
+                    System.arraycopy(data, done, block, offset, length);
+                }
+                writeBlock(b, block, retired);
+                done += length;
+            }
+            logicalSize = Math.max(logicalSize, position + data.length);
+            //数据落盘后再追加页表记录，记录落盘后旧的扇区才可以重用
+            super.force();
+            appendRecords(from, to);
+            map.force();
+            for (int[] sectors : retired) {
+                release(sectors[0], sectors[1]);
+            }
+            //文件末尾的空闲扇区直接截掉
+            Map.Entry<Integer, Integer> last = free.lastEntry();
+            if (last != null && last.getKey() + last.getValue() == endSector) {
+                free.remove(last.getKey());
+                endSector = last.getKey();
+                truncate((long) endSector * SECTOR_SIZE);
+            }
+            if (mapRecords > Math.max(numBlocks, MIN_RECORDS)) {
+                writeSnapshot();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the logical file in bytes
+     */
+    @Override
+    public long size() throws IOException {
+        load();
+        lock.readLock().lock();
+        try {
+            return logicalSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compressed files cannot be mapped.
+     *
+     * @return null
+     */
+    @Override
+    public ByteBuffer mapPage(long position, int pageSize) {
+        return null;
+    }
+
+    /**
+     * @return the number of bytes the blocks take in the physical file
+     */
+    public long physicalSize() throws IOException {
+        load();
+        lock.readLock().lock();
+        try {
+            return (long) endSector * SECTOR_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of blocks read from disk rather than from the
+     * compressed tier of the buffer pool
+     */
+    public long getBlockReads() {
+        return blockReads.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            super.close();
+            map.close();
+            cache().remove(this);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
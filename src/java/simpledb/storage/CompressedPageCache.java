@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The second tier of the buffer pool: the compressed images of recently
+ * read and written blocks of CompressedFileChannels, kept in memory up to a
+ * number of bytes. A page that drops out of the buffer pool is still here,
+ * so reading it again costs a decompression instead of a disk read; since
+ * a compressed page takes a fraction of a page, the tier holds several
+ * pages per page-sized frame worth of memory.
+ * <p>
+ * Blocks are dropped least recently used first. Every write through a
+ * channel replaces the cached image of the block, so the tier never holds
+ * stale data.
+ *
+ * @Threadsafe
+ * @see BufferPool#setCompressedCacheSize
+ */
+class CompressedPageCache {
+    private static class Key {
+        final CompressedFileChannel channel;
+        final int block;
+
+        Key(CompressedFileChannel channel, int block) {
+            this.channel = channel;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return channel == key.channel && block == key.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(channel), block);
+        }
+    }
+
+    private final Map<Key, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);  // protected by this
+    private long capacity;  // protected by this
+    private long size;  // protected by this
+    private long hits;  // protected by this
+
+    /**
+     * @param capacity the number of bytes of compressed images to keep
+     */
+    CompressedPageCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the stored image of the block, or null if it is not cached
+     */
+    synchronized byte[] get(CompressedFileChannel channel, int block) {
+        byte[] image = blocks.get(new Key(channel, block));
+        if (image != null) {
+            hits++;
+        }
+        return image;
+    }
+
+    /**
+     * Cache the stored image of the block, replacing the previous one.
+     */
+    synchronized void put(CompressedFileChannel channel, int block, byte[] image) {
+        byte[] old = blocks.remove(new Key(channel, block));
+        if (old != null) {
+            size -= old.length;
+        }
+        if (image.length > capacity) {
+            return;
+        }
+        blocks.put(new Key(channel, block), image);
+        size += image.length;
+        shrink();
+    }
+
+    /**
+     * Forget every block of the given channel, e.g. when its file is closed.
+     */
+    synchronized void remove(CompressedFileChannel channel) {
+        Iterator<Map.Entry<Key, byte[]>> it = blocks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, byte[]> e = it.next();
+            if (e.getKey().channel == channel) {
+                size -= e.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        shrink();
+    }
+
+    synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes of images cached
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of reads served from the cache
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    private void shrink() {
+        Iterator<byte[]> it = blocks.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().length;
+            it.remove();
+        }
+    }
+}
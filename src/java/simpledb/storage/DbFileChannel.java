@@ -0,0 +1,218 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The file of a DbFile, kept open for as long as the DbFile is in use.
+ * Pages are read and written with positional I/O, so concurrent readers do
+ * not contend on a shared file pointer and no read needs a seek.
+ * <p>
+ * A FileChannel is closed for every thread when a thread blocked in it is
+ * interrupted (e.g. the page writer being stopped); the other threads then
+ * reopen it and retry, while the interrupted thread gets the exception.
+ * <p>
+ * Pages can also be read from a read-only mapping of the file (see
+ * mapPage), which avoids copying them into the Java heap.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+    // 每个映射段包含的页数；段大小是页大小的整数倍，页不会跨段
+    static final int PAGES_PER_SEGMENT = 4096;
+
+    private final File file;
+    private volatile FileChannel channel;
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private volatile int segmentPageSize; // written under this
+
+    /**
+     * @param file the file backing the DbFile; it is opened on first use
+     */
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Read data.length bytes at the given position, or as many as the file
+     * holds; the rest of data is left untouched.
+     *
+     * @return the number of bytes read
+     */
+    public int read(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = channel().read(buf, position + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // 其他线程被中断时关闭了channel，重新打开后再读
+                continue;
+            }
+            if (n < 0) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+
+    /**
+     * Write all of data at the given position, extending the file if needed.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            try {
+                channel().write(buf, position + buf.position());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        while (true) {
+            try {
+                return channel().size();
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // reopen
+            }
+        }
+    }
+
+    /**
+     * Cut the file to the given size; does nothing if it is not longer.
+     */
+    public void truncate(long size) throws IOException {
+        segments.clear();
+        while (true) {
+            try {
+                channel().truncate(size);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // reopen
+            }
+        }
+    }
+
+    /**
+     * Force the writes made to the file so far to disk.
+     */
+    public void force() throws IOException {
+        while (true) {
+            try {
+                channel().force(false);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // reopen
+            }
+        }
+    }
+
+    /**
+     * Return a read-only view of the page at the given position in a
+     * mapping of the file, or null if the file does not hold the whole
+     * page yet.
+     * <p>
+     * The file is mapped in segments of PAGES_PER_SEGMENT pages, so large
+     * files need neither one huge mapping nor one mapping per page. A
+     * segment mapped while the file was shorter is mapped again once a
+     * page past its end is asked for. Writes through this channel are
+     * visible in the mapping.
+     *
+     * @param position the offset of the page in the file
+     * @param pageSize the size of the page
+     */
+    public ByteBuffer mapPage(long position, int pageSize) throws IOException {
+        long segmentSize = (long) pageSize * PAGES_PER_SEGMENT;
+        long index = position / segmentSize;
+        int offset = (int) (position - index * segmentSize);
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null || segment.capacity() < offset + pageSize || pageSize != segmentPageSize) {
+            segment = mapSegment(index, pageSize, offset + pageSize);
+            if (segment == null) {
+                return null;
+            }
+        }
+        ByteBuffer page = segment.duplicate();
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice().asReadOnlyBuffer();
+    }
+
+    private synchronized MappedByteBuffer mapSegment(long index, int pageSize, int needed) throws IOException {
+        if (pageSize != segmentPageSize) {
+            // 页大小变了，之前的段边界不再对齐
+            segments.clear();
+            segmentPageSize = pageSize;
+        }
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null && segment.capacity() >= needed) {
+            return segment;
+        }
+        long segmentSize = (long) pageSize * PAGES_PER_SEGMENT;
+        long start = index * segmentSize;
+        long length = Math.min(segmentSize, size() - start);
+        if (length < needed) {
+            return null;
+        }
+        while (true) {
+            try {
+                segment = channel().map(FileChannel.MapMode.READ_ONLY, start, length);
+                break;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // reopen
+            }
+        }
+        segments.put(index, segment);
+        return segment;
+    }
+
+    /**
+     * Close the file; it is reopened if the DbFile is used again.
+     */
+    public synchronized void close() throws IOException {
+        segments.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
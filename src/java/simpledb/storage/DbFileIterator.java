@@ -30,6 +30,23 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Clears the given batch and fills it with the next tuples, as many as
+     * fit. The default implementation calls hasNext and next for each tuple;
+     * iterators that can hand out tuples more cheaply in bulk override it.
+     *
+     * @return the number of tuples put in the batch; 0 only when there are
+     * no more tuples
+     */
+    default int nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && hasNext()) {
+            batch.add(next());
+        }
+        return batch.size();
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
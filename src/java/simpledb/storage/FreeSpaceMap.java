@@ -0,0 +1,129 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * The free-space map of a HeapFile: one bit per page, set once the page is
+ * known to be full, so that inserts go straight to a page with room instead
+ * of locking and reading every page before it.
+ * <p>
+ * The map is kept in a small file next to the heap file ("&lt;file&gt;.fsm"),
+ * so it survives a restart. A page without an entry (e.g. when the map file
+ * is missing or the page was appended by someone else) counts as having
+ * room. The map is only a hint and is not logged: a page marked as having
+ * room may turn out to be full, in which case the insert marks it and moves
+ * on, and a page that gets room back without a delete through the HeapFile
+ * (e.g. an aborted insert) is not reused until a tuple is deleted from it or
+ * it is written again.
+ * <p>
+ * The map file also records how many pages of the heap file are in use,
+ * since the heap file itself grows in preallocated extents and its length
+ * no longer tells. The count is written before a page is appended, so it
+ * never falls behind the pages on disk.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+    // 文件开头是页数，之后是位图
+    private static final int HEADER_SIZE = 4;
+
+    private final File file;
+    private final DbFileChannel channel;
+    private BitSet full = null;  // protected by this, 懒加载
+    private int numPages = -1;  // protected by this
+    private boolean hasHeader = false;  // protected by this
+
+    /**
+     * @param heapFile the file of the HeapFile the map belongs to
+     */
+    FreeSpaceMap(File heapFile) {
+        this.file = fileFor(heapFile);
+        this.channel = new DbFileChannel(file);
+    }
+
+    /**
+     * @return the file that holds the free-space map of a heap file
+     */
+    static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    private BitSet full() throws IOException {
+        if (full == null) {
+            long size = file.exists() ? channel.size() : 0;
+            if (size >= HEADER_SIZE) {
+                byte[] data = new byte[(int) size];
+                channel.read(data, 0);
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                numPages = buf.getInt();
+                hasHeader = true;
+                full = BitSet.valueOf(buf);
+            } else {
+                full = new BitSet();
+            }
+        }
+        return full;
+    }
+
+    /**
+     * Return the first page at or after from that may have an empty slot.
+     *
+     * @param from the page number to start at
+     * @param numPages the number of pages in the heap file
+     * @return the page number, or -1 if every page from on is full
+     */
+    synchronized int nextFree(int from, int numPages) throws IOException {
+        int pgNo = full().nextClearBit(from);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Record whether a page is full.
+     */
+    synchronized void setFull(int pgNo, boolean isFull) throws IOException {
+        BitSet bits = full();
+        if (bits.get(pgNo) == isFull) {
+            return;
+        }
+        bits.set(pgNo, isFull);
+        if (!hasHeader) {
+            writeHeader();
+        }
+        // 只写回包含这一位的字节
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (bits.get(pgNo / 8 * 8 + i)) {
+                b |= 1 << i;
+            }
+        }
+        channel.write(new byte[]{b}, HEADER_SIZE + pgNo / 8);
+    }
+
+    /**
+     * @return the number of pages in use recorded in the map, or -1 if
+     *         there is no record
+     */
+    synchronized int getNumPages() throws IOException {
+        full();
+        return numPages;
+    }
+
+    /**
+     * Record the number of pages in use.
+     */
+    synchronized void setNumPages(int numPages) throws IOException {
+        full();
+        if (numPages != this.numPages || !hasHeader) {
+            this.numPages = numPages;
+            writeHeader();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(numPages).array(), 0);
+        hasHeader = true;
+    }
+}
@@ -4,25 +4,43 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can also be made of SlottedPages, which store
+ * variable-length tuples; the format is chosen when the HeapFile is created.
  *
  * @author Sam Madden
  * @see HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
+    /**
+     * The file is grown by this many bytes of empty pages at a time, rather
+     * than by one page per append
+     */
+    public static final int EXTENT_SIZE = 1 << 20;
+
     private File file;
     private TupleDesc td;
+    private final DbFileChannel channel;
+    private final FreeSpaceMap freeSpace;
+    private final ZoneMap zones;
+    private final boolean slotted;
+    private final boolean compressed;
+    private volatile boolean memoryMapped = false;
+    private volatile int pages = -1;  // written under this, 正在使用的页数，-1表示尚未读取
+    private volatile long fileSize;  // written under this, 文件长度，包括预分配的空页
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,9 +49,69 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, made of
+     * SlottedPages if slotted is set and of HeapPages otherwise.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param slotted whether the file stores variable-length tuples
+     * @see SlottedPage
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
+        this(f, td, slotted, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, made of
+     * SlottedPages if slotted is set, whose pages are stored compressed if
+     * compressed is set.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param slotted whether the file stores variable-length tuples
+     * @param compressed whether the pages are compressed on disk
+     * @see CompressedFileChannel
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted, boolean compressed) {
         // some code goes here
         this.file = f;
         this.td = td;
+        this.slotted = slotted;
+        this.compressed = compressed;
+        this.channel = compressed ? new CompressedFileChannel(f, BufferPool.getPageSize(), 0) : new DbFileChannel(f);
+        this.freeSpace = new FreeSpaceMap(f);
+        this.zones = new ZoneMap(f, td);
+    }
+
+    /**
+     * @return whether this file is made of SlottedPages
+     */
+    public boolean isSlotted() {
+        return slotted;
+    }
+
+    /**
+     * @return whether the pages of this file are compressed on disk
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Have the file of a temporary table deleted when the JVM exits, with
+     * the files a HeapFile keeps next to it: its free-space map, its zone
+     * map and, for a compressed file, its block map.
+     * Use this instead of File.deleteOnExit for the files of HeapFiles.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        CompressedFileChannel.mapFileFor(f).deleteOnExit();
     }
 
     /**
@@ -73,25 +151,58 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Read the pages of this file from a memory mapping of it instead of
+     * reading each page through the channel. A page is copied once out of
+     * the mapping and the copy is also its before image, which saves the
+     * read call and serializing the page again, and suits large scans.
+     * Writes still go through the file.
+     * Compressed files are always read through the file.
+     *
+     * @param memoryMapped whether pages are read from a mapping of the file
+     * @see DbFileChannel#mapPage
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         //return null;
         Page page = null;
         int pageSize = BufferPool.getPageSize();
-        int offset = pid.getPageNumber() * BufferPool.getPageSize();
-        byte[] data = new byte[pageSize];
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
         try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            randomAccessFile.seek(offset);
-            randomAccessFile.read(data);
-            page = new HeapPage((HeapPageId) pid, data);
+            if (memoryMapped) {
+                ByteBuffer mapped = channel.mapPage(offset, pageSize);
+                if (mapped != null && !slotted) {
+                    return new HeapPage((HeapPageId) pid, mapped);
+                }
+                if (mapped != null) {
+                    //SlottedPage按槽复制元组，从映射中读出整页即可
+                    byte[] data = new byte[pageSize];
+                    mapped.get(data);
+                    return new SlottedPage((HeapPageId) pid, data);
+                }
+            }
+            byte[] data = new byte[pageSize];
+            channel.read(data, offset);
+            page = newPage((HeapPageId) pid, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return page;
     }
 
+    private TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return slotted ? new SlottedPage(pid, data) : new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         //Push the specified page to disk.将指定的页面刷新到内存
@@ -99,24 +210,98 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         PageId id = page.getId();
         int pgNo = id.getPageNumber();
-        int offset = id.getPageNumber() * BufferPool.getPageSize();
-        if (pgNo > numPages()) {
-            throw new IOException("");
+        long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+        synchronized (this) {
+            int count = pageCount();
+            if (pgNo > count) {
+                throw new IOException("page " + pgNo + " is past the end of " + file);
+            }
+            if (pgNo == count) {
+                extend(pgNo + 1);
+            }
         }
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek(offset);
         byte[] pageData = page.getPageData();
-        randomAccessFile.write(pageData);
-        randomAccessFile.close();
+        channel.write(pageData, offset);
+        //恢复时直接写盘的页面也要更新空闲空间
+        freeSpace.setFull(pgNo, ((TuplePage) page).isFull());
+        zones.set(pgNo, (TuplePage) page);
     }
 
     /**
      * Returns the number of pages in this HeapFile.
+     * <p>
+     * The count is kept in memory (and in the free-space map, since the file
+     * also holds preallocated empty pages) and updated as this HeapFile
+     * appends pages; inserts and scans use it without looking at the file.
+     * This method also compares the size of the file with the size last
+     * seen, to notice pages appended other than through this HeapFile, and
+     * only takes the lock when the size has changed.
+     *
+     * @throws IllegalStateException if the size of the file cannot be read
      */
     public int numPages() {
         // some code goes here
         //return 0;
-        return (int) Math.ceil(file.length() / BufferPool.getPageSize());
+        int n = pageCount();
+        try {
+            long size = channel.size();
+            return size == fileSize ? n : reloadPageCount(size);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read the size of " + file, e);
+        }
+    }
+
+    /**
+     * The page count without looking at the file, for scans and inserts
+     */
+    private int pageCount() {
+        int n = pages;
+        return n >= 0 ? n : loadPageCount();
+    }
+
+    private synchronized int loadPageCount() {
+        if (pages < 0) {
+            try {
+                fileSize = channel.size();
+                int onDisk = (int) (fileSize / BufferPool.getPageSize());
+                //记录的页数超过文件长度时，文件已被重写过，以文件为准
+                int recorded = freeSpace.getNumPages();
+                pages = recorded >= 0 && recorded <= onDisk ? recorded : onDisk;
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read the page count of " + file, e);
+            }
+        }
+        return pages;
+    }
+
+    private synchronized int reloadPageCount(long size) {
+        int onDisk = (int) (size / BufferPool.getPageSize());
+        if (size > fileSize) {
+            //其他写者在文件末尾追加了页面
+            pages = Math.max(pages, onDisk);
+        } else if (size < fileSize) {
+            pages = Math.min(pages, onDisk);
+        }
+        fileSize = size;
+        return pages;
+    }
+
+    /**
+     * Grow the file to n pages in use. The count is recorded before any of
+     * the new pages is written; the file is extended by whole extents of
+     * empty pages when it is too short.
+     */
+    private void extend(int n) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        freeSpace.setNumPages(n);
+        long needed = (long) n * pageSize;
+        if (needed > fileSize) {
+            long extent = Math.max(1, EXTENT_SIZE / pageSize) * (long) pageSize;
+            long newSize = (needed + extent - 1) / extent * extent;
+            channel.write(new byte[(int) (newSize - fileSize)], fileSize);
+            fileSize = newSize;
+        }
+        pages = n;
     }
 
     // see DbFile.java for javadocs
@@ -126,23 +311,43 @@ public class HeapFile implements DbFile {
         //return null;
         // not necessary for lab1
         List<Page> res = new LinkedList<>();
-        for (int i = 0; i < numPages(); i++) {
+        //只访问空闲空间表中还有空位的页面
+        for (int i = freeSpace.nextFree(0, pageCount()); i >= 0; i = freeSpace.nextFree(i + 1, pageCount())) {
 
             PageId pageId = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
-                page.insertTuple(t);
-                page.markDirty(true, tid);
-                res.add(page);
+            BufferPool bufferPool = Database.getBufferPool();
+            TuplePage page = (TuplePage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+            Lock latch = bufferPool.latchPage(pageId, true);
+            try {
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    zones.widen(i, t);
+                    res.add(page);
+                }
+                freeSpace.setFull(i, page.isFull());
+            } finally {
+                latch.unlock();
+            }
+            if (res.size() > 0) {
                 break;
-            } else {
-                //插入时该page没有空slot，可以直接释放掉锁
-                Database.getBufferPool().unsafeReleasePage(tid, pageId);
             }
+            //插入时该page放不下元组，可以直接释放掉锁
+            bufferPool.unsafeReleasePage(tid, pageId);
+            bufferPool.unpinPage(tid, pageId);
         }
         if (res.size() == 0) {
-            HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-            HeapPage newPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
+            //先确认空页放得下，放不下时不追加页面
+            if (!newPage(new HeapPageId(getId(), 0), HeapPage.createEmptyPageData()).hasRoomFor(t)) {
+                throw new DbException("the tuple does not fit on an empty page of " + file);
+            }
+            //在锁内分配页号，并发追加的事务不会拿到同一页
+            HeapPageId heapPageId;
+            synchronized (this) {
+                heapPageId = new HeapPageId(getId(), pageCount());
+                extend(heapPageId.getPageNumber() + 1);
+            }
+            TuplePage newPage = newPage(heapPageId, HeapPage.createEmptyPageData());
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
             res.add(newPage);
@@ -158,10 +363,21 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         ArrayList<Page> res = new ArrayList<>();
         RecordId recordId = t.getRecordId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, recordId.getPageId(), Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, recordId.getPageId(), Permissions.READ_WRITE);
+        Lock latch = Database.getBufferPool().latchPage(page.getId(), true);
+        try {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+        } finally {
+            latch.unlock();
+        }
+        try {
+            freeSpace.setFull(page.getId().getPageNumber(), false);
+        } catch (IOException e) {
+            // 空闲空间表只是提示，写失败不影响删除
+            e.printStackTrace();
+        }
         res.add(page);
-        page.markDirty(true, tid);
         return res;
     }
 
@@ -170,32 +386,143 @@ public class HeapFile implements DbFile {
         // some code goes here
         //return null;
 
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, Collections.emptyList(), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy the
+     * given predicate. Pages that the zone map shows cannot hold a match
+     * for a predicate on an INT_TYPE field are not read at all.
+     *
+     * @param predicate the predicate on the fields of this file, or null
+     *                  for all tuples
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate predicate) {
+        return iterator(tid, predicate == null ? Collections.emptyList() : Collections.singletonList(predicate),
+                null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all the
+     * given predicates, each with just the given fields. The predicates are
+     * evaluated on the pages in the buffer pool, so tuples that do not match
+     * are skipped without being copied, and pages that the zone map shows
+     * cannot hold a match are not read at all.
+     *
+     * @param predicates the predicates on the fields of this file
+     * @param fields     the indexes of the fields to return, in the order
+     *                   they are wanted; null for all fields
+     * @see TuplePage#iterator(List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] fields) {
+        return new HeapFileIterator(tid, predicates, fields);
     }
 
     private class HeapFileIterator implements DbFileIterator {
         private final TransactionId tid;
+        private final List<Predicate> predicates;
+        private final int[] fields;
         private int pagePos = 0;
         private Iterator<Tuple> pageIterator = null;
+        private int readAheadPos = 0;  // 已经发起预读的页号上界(不含)
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, List<Predicate> predicates, int[] fields) {
             this.tid = tid;
+            this.predicates = predicates;
+            this.fields = fields;
+        }
+
+        private boolean mayMatch(int pgNo) throws IOException {
+            for (Predicate p : predicates) {
+                if (!zones.mayMatch(pgNo, p)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the first page at or after from that may hold a tuple
+         * satisfying the predicate, or pageCount() if there is none
+         */
+        private int nextPage(int from) {
+            try {
+                while (from < pageCount() && !mayMatch(from)) {
+                    from++;
+                }
+            } catch (IOException e) {
+                // 区域映射只是提示，读不出来就逐页扫描
+                e.printStackTrace();
+            }
+            return from;
         }
 
         public Iterator<Tuple> getPageIterator() throws DbException {
             Page page = null;
+            pagePos = nextPage(pagePos);
+            if (!predicates.isEmpty() && pagePos >= pageCount()) {
+                return Collections.emptyIterator();
+            }
+            BufferPool bufferPool = Database.getBufferPool();
+            PageId pageId = new HeapPageId(getId(), pagePos);
             try {
-                page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pagePos), Permissions.READ_ONLY);
+                page = bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+                readAhead(pagePos);
                 pagePos++;
             } catch (TransactionAbortedException e) {
                 e.printStackTrace();
             }
-            return ((HeapPage) page).iterator();
+            //在读latch下取得页面上元组的快照，之后的读取不受并发写入影响，
+            //所以拿到快照就可以unpin，即使迭代器没有被close也不会一直占着frame
+            Iterator<Tuple> tuples;
+            Lock latch = bufferPool.latchPage(pageId, false);
+            try {
+                tuples = ((TuplePage) page).iterator(predicates, fields);
+                if (!predicates.isEmpty() && page.isDirty() == null) {
+                    learnZone((TuplePage) page);
+                }
+            } finally {
+                latch.unlock();
+                bufferPool.unpinPage(tid, pageId);
+            }
+            return tuples;
+        }
+
+        private void learnZone(TuplePage page) {
+            try {
+                zones.learn(page.getId().getPageNumber(), page);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Once the scan has moved on from its first page, keep the pages
+         * ahead of it being read in the background, half a window at a time.
+         */
+        private void readAhead(int pageNo) {
+            BufferPool bufferPool = Database.getBufferPool();
+            int window = bufferPool.getReadAheadPages();
+            if (pageNo == 0 || window <= 0 || pageNo + window / 2 < readAheadPos) {
+                return;
+            }
+            int end = Math.min(pageCount(), pageNo + 1 + window);
+            int first = nextPage(Math.max(readAheadPos, pageNo + 1));
+            if (first >= end) {
+                return;
+            }
+            readAheadPos = end;
+            bufferPool.readAhead(new HeapPageId(getId(), first), end - first, page -> {
+                int next = nextPage(page.getId().getPageNumber() + 1);
+                return next < end ? new HeapPageId(getId(), next) : null;
+            });
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             pagePos = 0;
+            readAheadPos = 0;
             pageIterator = getPageIterator();
         }
 
@@ -206,6 +533,8 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            //每次扫描只看一次文件长度，之后按缓存的页数
+            numPages();
             pageIterator = getPageIterator();
         }
 
@@ -215,7 +544,7 @@ public class HeapFile implements DbFile {
             if (pageIterator == null) return false;//暂未初始化
             if (pageIterator.hasNext()) return true;//当前页还有下一项
             //获取下一页
-            while (pagePos < numPages()) {
+            while (pagePos < pageCount()) {
                 pageIterator = getPageIterator();
                 if (pageIterator.hasNext()) {
                     return true;
@@ -226,19 +555,28 @@ public class HeapFile implements DbFile {
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (pageIterator == null) {
-                throw new NoSuchElementException();
-            }
-            if (pageIterator.hasNext()) {
-                return pageIterator.next();
-            }
-            pageIterator = getPageIterator();
-            if (!pageIterator.hasNext()) {
+            //一页上的元组可能都不满足谓词，由hasNext跳过这些页面
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
             return pageIterator.next();
         }
 
+        /**
+         * Takes the tuples of a page straight from its snapshot, and only
+         * goes through hasNext to move to the next page.
+         */
+        @Override
+        public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull() && hasNext()) {
+                while (!batch.isFull() && pageIterator.hasNext()) {
+                    batch.add(pageIterator.next());
+                }
+            }
+            return batch.size();
+        }
+
         @Override
         public int hashCode() {
             return super.hashCode();
@@ -108,6 +108,10 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the free-space map, zone map and page map of a file written over no longer apply
+    FreeSpaceMap.fileFor(outFile).delete();
+    ZoneMap.fileFor(outFile).delete();
+    CompressedFileChannel.mapFileFor(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -19,7 +21,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
@@ -50,6 +52,35 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from a read-only view of its data, such as a page of
+     * a memory-mapped HeapFile.
+     * <p>
+     * The data is copied once when the page is read, and the copy is both
+     * parsed and kept as the before image, so the before image is what was
+     * read even if the mapping changes later. Unlike the other constructor,
+     * this does not serialize the page again for its before image.
+     *
+     * @see HeapFile#setMemoryMapped
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data), true);
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param keepData whether data is a private copy that can be kept as the
+     *                 before image instead of serializing the page again
+     */
+    private HeapPage(HeapPageId id, byte[] data, boolean keepData) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
@@ -70,7 +101,11 @@ public class HeapPage implements Page {
         }
         dis.close();
 
-        setBeforeImage();
+        if (keepData) {
+            oldData = data;
+        } else {
+            setBeforeImage();
+        }
     }
 
     /**
@@ -346,6 +381,14 @@ public class HeapPage implements Page {
         return res;
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isFull() {
+        return getNumEmptySlots() == 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -375,6 +418,9 @@ public class HeapPage implements Page {
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The iterator works on a snapshot of the used slots taken when it is
+     * created, so later inserts and deletes on the page do not affect it.
      */
     public Iterator<Tuple> iterator() {
         //some code goes here
@@ -387,24 +433,52 @@ public class HeapPage implements Page {
         return new Iter();
     }
 
+    /**
+     * Evaluates the predicates on the slots of the page directly, so only the
+     * matching tuples are ever put in the snapshot or projected.
+     */
+    @Override
+    public Iterator<Tuple> iterator(List<Predicate> predicates, int[] fields) {
+        return new Iter(predicates, fields);
+    }
+
     private class Iter implements Iterator<Tuple> {
+        final Tuple[] snapshot;
         int index = 0;
 
-        @Override
-        public boolean hasNext() {
-            if (index >= tuples.length) return false;
-            while (index < tuples.length) {
-                if (isSlotUsed(index)) {
-                    return true;
+        Iter() {
+            this(Collections.emptyList(), null);
+        }
+
+        Iter(List<Predicate> predicates, int[] fields) {
+            int count = 0;
+            Tuple[] used = new Tuple[tuples.length];
+            for (int i = 0; i < tuples.length; i++) {
+                if (isSlotUsed(i) && Predicate.filterAll(predicates, tuples[i])) {
+                    used[count++] = tuples[i];
+                }
+            }
+            if (fields != null && count > 0) {
+                //只投影满足谓词的元组
+                TupleDesc projected = td.project(fields);
+                for (int i = 0; i < count; i++) {
+                    used[i] = used[i].project(projected, fields);
                 }
-                index++;
             }
-            return false;
+            snapshot = Arrays.copyOf(used, count);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < snapshot.length;
         }
 
         @Override
         public Tuple next() {
-            return tuples[index++];
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return snapshot[index++];
         }
     }
 
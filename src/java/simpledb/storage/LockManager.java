@@ -0,0 +1,402 @@
+package simpledb.storage;
+
+import simpledb.debug.BufferPoolDPrintf;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager grants page-level shared and exclusive locks to transactions.
+ * <p>
+ * The lock table is partitioned into stripes by the hash of the {@link PageId};
+ * each stripe has its own latch, so transactions locking pages in different
+ * stripes never contend with each other. Every transaction also keeps the list
+ * of pages it has locked, so releasing its locks does not scan the table.
+ * <p>
+ * A transaction that cannot be granted a lock blocks on the wait queue of
+ * the page and is woken up when a holder releases the page. Before blocking,
+ * the requester runs a cycle check over the wait-for graph; if it would close
+ * a cycle, the youngest transaction in the cycle is chosen as the victim and
+ * aborted with a {@link TransactionAbortedException}, while all other
+ * transactions keep waiting. The detector only sees transactions that are
+ * waiting, so a transaction that holds locks and is never completed would
+ * block everyone else forever; a wait that lasts longer than the lock
+ * timeout therefore aborts the waiter as well.
+ * <p>
+ * Latch order: a stripe latch may be held while entering the wait-for graph,
+ * never the other way round, and at most one stripe latch is held at a time.
+ */
+class LockManager {
+
+    /**
+     * Number of stripes of the lock table, must be a power of two.
+     */
+    static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Default longest time a transaction waits for a lock, in milliseconds.
+     */
+    static final long DEFAULT_LOCK_TIMEOUT_MS = 3000;
+
+    /**
+     * Lock state of a single page: the holders of the page and the
+     * condition that waiting transactions block on.
+     */
+    private static class PageLock {
+        final Set<TransactionId> sharers = new HashSet<>();
+        final List<TransactionId> waiting = new ArrayList<>();
+        TransactionId owner;
+        final Condition released;
+
+        PageLock(Condition released) {
+            this.released = released;
+        }
+
+        boolean grantable(TransactionId tid, boolean isSharedLock) {
+            if (owner != null) {
+                return owner.equals(tid);
+            }
+            if (isSharedLock) {
+                return true;
+            }
+            //没有排他锁时，只有tid自己持有共享锁才可以升级
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty() && waiting.isEmpty();
+        }
+
+        Set<TransactionId> holdersOtherThan(TransactionId tid) {
+            Set<TransactionId> holders = new HashSet<>(sharers);
+            if (owner != null) {
+                holders.add(owner);
+            }
+            holders.remove(tid);
+            return holders;
+        }
+    }
+
+    /**
+     * One partition of the lock table.
+     */
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<PageId, PageLock> pageLocks = new HashMap<>();
+
+        PageLock getOrCreate(PageId pageId) {
+            return pageLocks.computeIfAbsent(pageId, k -> new PageLock(latch.newCondition()));
+        }
+    }
+
+    /**
+     * Wait-for graph shared by all stripes. An edge T1 -> T2 means that T1
+     * waits for a page T2 holds; edges are kept per page so that they can be
+     * dropped as soon as the holder releases the page.
+     */
+    private static class WaitForGraph {
+        private final Map<TransactionId, Map<PageId, Set<TransactionId>>> edges = new HashMap<>();
+
+        synchronized void waitFor(TransactionId tid, PageId pageId, Set<TransactionId> holders) {
+            edges.computeIfAbsent(tid, k -> new HashMap<>()).put(pageId, holders);
+        }
+
+        synchronized void stopWaiting(TransactionId tid, PageId pageId) {
+            Map<PageId, Set<TransactionId>> pages = edges.get(tid);
+            if (pages != null) {
+                pages.remove(pageId);
+                if (pages.isEmpty()) {
+                    edges.remove(tid);
+                }
+            }
+        }
+
+        synchronized void released(PageId pageId, TransactionId holder, List<TransactionId> waiting) {
+            for (TransactionId tid : waiting) {
+                Map<PageId, Set<TransactionId>> pages = edges.get(tid);
+                if (pages != null && pages.containsKey(pageId)) {
+                    pages.get(pageId).remove(holder);
+                }
+            }
+        }
+
+        synchronized Set<PageId> waitingPages(TransactionId tid) {
+            Map<PageId, Set<TransactionId>> pages = edges.get(tid);
+            return pages == null ? Collections.emptySet() : new HashSet<>(pages.keySet());
+        }
+
+        /**
+         * @return the transactions on a cycle through tid, or null if there is none
+         */
+        synchronized List<TransactionId> findCycle(TransactionId tid, Set<TransactionId> ignored) {
+            return findCycle(tid, tid, new HashSet<>(), new ArrayDeque<>(), ignored);
+        }
+
+        private List<TransactionId> findCycle(TransactionId start, TransactionId current, Set<TransactionId> visited,
+                                              Deque<TransactionId> path, Set<TransactionId> ignored) {
+            Map<PageId, Set<TransactionId>> pages = edges.get(current);
+            if (pages == null || ignored.contains(current)) {
+                return null;
+            }
+            path.addLast(current);
+            for (Set<TransactionId> holders : pages.values()) {
+                for (TransactionId next : holders) {
+                    if (next.equals(start)) {
+                        return new ArrayList<>(path);
+                    }
+                    if (visited.add(next)) {
+                        List<TransactionId> cycle = findCycle(start, next, visited, path, ignored);
+                        if (cycle != null) {
+                            return cycle;
+                        }
+                    }
+                }
+            }
+            path.removeLast();
+            return null;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final Map<TransactionId, Set<PageId>> tidPageMap = new ConcurrentHashMap<>();
+    private final WaitForGraph waitForGraph = new WaitForGraph();
+    // 被选为死锁牺牲者、尚未结束的事务
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+    private volatile long lockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LOCK_TIMEOUT_MS);
+
+    public LockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public LockManager(int numStripes) {
+        if (Integer.bitCount(numStripes) != 1) {
+            throw new IllegalArgumentException("number of stripes must be a power of two");
+        }
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Set the longest time lock waits for a page before it aborts the
+     * requesting transaction.
+     */
+    void setLockTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("lock timeout must be positive");
+        }
+        lockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private Stripe stripeOf(PageId pageId) {
+        int h = pageId.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Acquire a lock on the page for the transaction, blocking until the lock
+     * is granted.
+     *
+     * @param pageId       the page to lock
+     * @param tid          the requesting transaction
+     * @param isSharedLock true for a shared (read) lock, false for an exclusive one
+     * @throws TransactionAbortedException if the transaction was chosen as a
+     *                                     deadlock victim while waiting, or
+     *                                     waited longer than the lock timeout
+     */
+    public void lock(PageId pageId, TransactionId tid, boolean isSharedLock)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeOf(pageId);
+        stripe.latch.lock();
+        try {
+            PageLock pageLock = stripe.getOrCreate(pageId);
+            if (!pageLock.grantable(tid, isSharedLock)) {
+                pageLock.waiting.add(tid);
+                long deadline = System.nanoTime() + lockTimeoutNanos;
+                try {
+                    while (!pageLock.grantable(tid, isSharedLock)) {
+                        if (victims.contains(tid)) {
+                            BufferPoolDPrintf.print(String.format("Transaction[%d] is a deadlock victim, aborted", tid.getId()));
+                            throw new TransactionAbortedException();
+                        }
+                        waitForGraph.waitFor(tid, pageId, pageLock.holdersOtherThan(tid));
+                        TransactionId victim = detectDeadlock(tid);
+                        if (victim != null) {
+                            // 唤醒牺牲者时不能持有本分区的锁，否则分区之间可能互相等待
+                            stripe.latch.unlock();
+                            try {
+                                wakeUp(victim);
+                            } finally {
+                                stripe.latch.lock();
+                            }
+                            continue;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            BufferPoolDPrintf.print(String.format("Transaction[%d] timed out waiting for page(%d-%d), aborted",
+                                    tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
+                            throw new TransactionAbortedException();
+                        }
+                        try {
+                            pageLock.released.awaitNanos(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new TransactionAbortedException();
+                        }
+                    }
+                } finally {
+                    pageLock.waiting.remove(tid);
+                    waitForGraph.stopWaiting(tid, pageId);
+                    if (pageLock.isFree()) {
+                        stripe.pageLocks.remove(pageId);
+                    }
+                }
+            }
+            grant(stripe, pageLock, pageId, tid, isSharedLock);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Acquire a lock on the page for the transaction if it can be granted
+     * right away, without waiting.
+     *
+     * @return true if the lock was granted
+     */
+    public boolean tryLock(PageId pageId, TransactionId tid, boolean isSharedLock) {
+        Stripe stripe = stripeOf(pageId);
+        stripe.latch.lock();
+        try {
+            PageLock pageLock = stripe.getOrCreate(pageId);
+            if (!pageLock.grantable(tid, isSharedLock)) {
+                if (pageLock.isFree()) {
+                    stripe.pageLocks.remove(pageId);
+                }
+                return false;
+            }
+            grant(stripe, pageLock, pageId, tid, isSharedLock);
+            return true;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    private void grant(Stripe stripe, PageLock pageLock, PageId pageId, TransactionId tid, boolean isSharedLock) {
+        if (isSharedLock) {
+            if (pageLock.owner == null) {
+                pageLock.sharers.add(tid);
+            }
+        } else {
+            pageLock.sharers.remove(tid);
+            pageLock.owner = tid;
+        }
+        stripe.pageLocks.putIfAbsent(pageId, pageLock);
+        tidPageMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pageId);
+        BufferPoolDPrintf.print(String.format("Transaction[%d] get %s of page(%d-%d)", tid.getId(),
+                isSharedLock ? "readLock" : "writeLock", pageId.getPageNumber(), pageId.getTableId()));
+    }
+
+    /**
+     * Look for a cycle in the wait-for graph that goes through tid. If there
+     * is one, the youngest transaction on the cycle becomes the victim: the
+     * caller aborts right away if it is the victim, otherwise the victim is
+     * returned so that the caller can wake it up.
+     */
+    private TransactionId detectDeadlock(TransactionId tid) throws TransactionAbortedException {
+        List<TransactionId> cycle = waitForGraph.findCycle(tid, victims);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = tid;
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        BufferPoolDPrintf.print(String.format("Transaction[%d] found deadlock %s, victim is Transaction[%d]",
+                tid.getId(), cycle, victim.getId()));
+        if (victim.equals(tid)) {
+            throw new TransactionAbortedException();
+        }
+        victims.add(victim);
+        return victim;
+    }
+
+    private void wakeUp(TransactionId victim) {
+        for (PageId pageId : waitForGraph.waitingPages(victim)) {
+            Stripe stripe = stripeOf(pageId);
+            stripe.latch.lock();
+            try {
+                PageLock pageLock = stripe.pageLocks.get(pageId);
+                if (pageLock != null) {
+                    pageLock.released.signalAll();
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
+        }
+    }
+
+    public void unlock(PageId pageId, TransactionId tid) {
+        Stripe stripe = stripeOf(pageId);
+        stripe.latch.lock();
+        try {
+            PageLock pageLock = stripe.pageLocks.get(pageId);
+            if (pageLock == null) {
+                return;
+            }
+            if (tid.equals(pageLock.owner)) {
+                BufferPoolDPrintf.print(String.format("Transaction[%d] unlock writeLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
+                pageLock.owner = null;
+            }
+            if (pageLock.sharers.remove(tid)) {
+                BufferPoolDPrintf.print(String.format("Transaction[%d] unlock readLock of page(%d-%d)", tid.getId(), pageId.getPageNumber(), pageId.getTableId()));
+            }
+            Set<PageId> pages = tidPageMap.get(tid);
+            if (pages != null) {
+                pages.remove(pageId);
+            }
+            if (pageLock.isFree()) {
+                stripe.pageLocks.remove(pageId);
+            } else {
+                waitForGraph.released(pageId, tid, pageLock.waiting);
+                pageLock.released.signalAll();
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    public boolean holdsLock(PageId p, TransactionId tid) {
+        Set<PageId> pages = tidPageMap.get(tid);
+        return pages != null && pages.contains(p);
+    }
+
+    public List<PageId> getTidPages(TransactionId tid) {
+        Set<PageId> pages = tidPageMap.get(tid);
+        if (pages == null) {
+            return new LinkedList<>();
+        }
+        return new ArrayList<>(pages);
+    }
+
+    /**
+     * Release every lock held by the transaction and forget that it was
+     * chosen as a deadlock victim.
+     */
+    public void close(TransactionId tid) {
+        for (PageId pageId : getTidPages(tid)) {
+            unlock(pageId, tid);
+        }
+        tidPageMap.remove(tid);
+        victims.remove(tid);
+    }
+}
@@ -2,11 +2,16 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.reflect.*;
 
 /*
@@ -55,28 +60,38 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS consist of a page delta: the byte ranges of the
+page data that changed, with their contents before and after the
+update.  A delta is read and written with LogFile.readPageDelta() and
+LogFile.writePageDelta(); see PageDelta for its format and
+LogFile.print() for an example.
+
+<li> CLR (compensation) records are written when an update is undone and
+consist of a page delta to the restored page, without the contents
+before it.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  It is followed by the dirty page table:
+an integer count of pages, and for each page its serialized id (see
+writePageId) and the offset of the first log record whose changes to
+the page may not be on disk yet; and by the long integer offset of the
+end of the log when the dirty page table was taken: pages changed by
+later records may not be on disk either.
 
 </ul>
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private volatile RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,16 +99,27 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    // redo时写页面的线程数
+    static final int REDO_THREADS = 4;
+
+    volatile long currentOffset = -1;//written under this
+
+    // 组提交：force()只保证写到某个offset之前的日志落盘，一次fsync可以覆盖多个commit
+    private final Object forceLock = new Object();
+    private long durableOffset = 0; // protected by forceLock
+    private int totalForces = 0; // protected by forceLock
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    // 每个活跃事务的update日志的位置，按写入顺序，回滚时只读这些日志
+    final Map<Long, List<Long>> tidToUpdates = new HashMap<>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -141,6 +167,13 @@ public class LogFile {
         return totalRecords;
     }
 
+    /** @return the number of times the log was actually synced to disk */
+    public int getTotalForces() {
+        synchronized (forceLock) {
+            return totalForces;
+        }
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -166,126 +199,297 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToUpdates.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
+        <p>
+        The record is appended under the log latch but forced after the
+        latch is released, so that transactions committing at the same time
+        append their records while one of them syncs the log, and share a
+        single force (group commit).
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitOffset;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            commitOffset = currentOffset;
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToUpdates.remove(tid.getId());
+        }
+        forceUpTo(commitOffset);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
         (with provided         before and after images.)
+        Only the bytes that differ between the two images are logged.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record in the log
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        PageDelta delta = PageDelta.diff(after.getClass().getName(), after.getId(),
+                before.getPageData(), after.getPageData(), true);
+        synchronized (this) {
+            Debug.log("WRITE, offset = " + raf.getFilePointer());
+            preAppend();
+            /* update record conists of
+
+               record type
+               transaction id
+               page delta (see writePageDelta)
+               start offset
+            */
+            long startOffset = currentOffset;
+            List<Long> updates = tidToUpdates.get(tid.getId());
+            if (updates == null && tidToFirstLogRecord.containsKey(tid.getId())) {
+                updates = new ArrayList<>();
+                tidToUpdates.put(tid.getId(), updates);
+            }
+            if (updates != null) {
+                updates.add(startOffset);
+            }
+            raf.writeInt(UPDATE_RECORD);
+            raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+            writePageDelta(raf, delta);
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+            Debug.log("WRITE OFFSET = " + currentOffset);
+            return startOffset;
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /** The changes of an UPDATE or CLR record to a page, as byte ranges of
+        its serialized data (see Page#getPageData).  In a HeapPage or a
+        BTreeLeafPage, inserting or deleting a tuple changes a header byte
+        and one slot, so a delta is a few dozen bytes instead of a page.
+        <p>
+        A delta is serialized as the page class name, the page id (see
+        writePageId), the size of the page data and the number of ranges,
+        followed by the offset, the length, the old bytes (UPDATE records
+        only) and the new bytes of each range.  A page whose before image
+        is empty was written to disk without going through the log (a new
+        HeapFile page, a reused BTreeFile page), so its after image is
+        logged in full instead, with -1 as the number of ranges.
+        <p>
+        Setting bytes is idempotent, so redo can apply the deltas of a page
+        in log order to whatever version of it is on disk; undo applies the
+        old bytes in reverse order.
+    */
+    static class PageDelta {
+        // 两段差异之间相隔不超过这么多字节时合并为一段，省掉一个range的offset和length
+        static final int MERGE_GAP = 2 * INT_SIZE;
+
+        final String pageClassName;
+        final PageId pid;
+        final int pageSize;
+        final boolean undoable;
+        boolean full;
+        final List<int[]> ranges = new ArrayList<>(); // offset, length
+        final List<byte[]> oldBytes = new ArrayList<>();
+        final List<byte[]> newBytes = new ArrayList<>();
+
+        PageDelta(String pageClassName, PageId pid, int pageSize, boolean undoable) {
+            this.pageClassName = pageClassName;
+            this.pid = pid;
+            this.pageSize = pageSize;
+            this.undoable = undoable;
+        }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        /** @return the delta that turns the page data before into after;
+            the old bytes are kept only if undoable is set
+        */
+        static PageDelta diff(String pageClassName, PageId pid, byte[] before, byte[] after,
+                              boolean undoable) {
+            PageDelta delta = new PageDelta(pageClassName, pid, after.length, undoable);
+            if (isEmpty(before)) {
+                delta.full = true;
+                delta.newBytes.add(after);
+                return delta;
+            }
+            int i = 0;
+            while (i < after.length) {
+                if (before[i] == after[i]) {
+                    i++;
+                    continue;
+                }
+                int end = i + 1;
+                for (int j = end; j < after.length && j < end + MERGE_GAP; j++) {
+                    if (before[j] != after[j]) {
+                        end = j + 1;
+                    }
+                }
+                delta.ranges.add(new int[]{i, end - i});
+                if (undoable) {
+                    delta.oldBytes.add(Arrays.copyOfRange(before, i, end));
+                }
+                delta.newBytes.add(Arrays.copyOfRange(after, i, end));
+                i = end;
+            }
+            return delta;
+        }
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
+        private static boolean isEmpty(byte[] data) {
+            for (byte b : data) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
-    }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+        /** Apply the new bytes of this delta to the page data */
+        void redo(byte[] data) {
+            if (full) {
+                System.arraycopy(newBytes.get(0), 0, data, 0, pageSize);
+                return;
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                System.arraycopy(newBytes.get(i), 0, data, ranges.get(i)[0], ranges.get(i)[1]);
+            }
+        }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        /** Apply the old bytes of this delta to the page data */
+        void undo(byte[] data) {
+            if (full) {
+                Arrays.fill(data, (byte) 0);
+                return;
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                System.arraycopy(oldBytes.get(i), 0, data, ranges.get(i)[0], ranges.get(i)[1]);
+            }
+        }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+        /** @return the number of bytes of page data in this delta */
+        int size() {
+            int size = 0;
+            for (byte[] bytes : newBytes) {
+                size += bytes.length;
+            }
+            return undoable ? 2 * size : size;
+        }
+    }
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+    void writePageDelta(RandomAccessFile raf, PageDelta delta) throws IOException {
+        raf.writeUTF(delta.pageClassName);
+        writePageId(raf, delta.pid);
+        raf.writeInt(delta.pageSize);
+        if (delta.full) {
+            raf.writeInt(-1);
+            raf.write(delta.newBytes.get(0));
+            return;
+        }
+        raf.writeInt(delta.ranges.size());
+        for (int i = 0; i < delta.ranges.size(); i++) {
+            raf.writeInt(delta.ranges.get(i)[0]);
+            raf.writeInt(delta.ranges.get(i)[1]);
+            if (delta.undoable) {
+                raf.write(delta.oldBytes.get(i));
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            raf.write(delta.newBytes.get(i));
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** Read a page delta written by writePageDelta.
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        @param undoable true for the delta of an UPDATE record, false for a CLR
+    */
+    PageDelta readPageDelta(RandomAccessFile raf, boolean undoable) throws IOException {
+        String pageClassName = raf.readUTF();
+        PageId pid = readPageId(raf);
+        PageDelta delta = new PageDelta(pageClassName, pid, raf.readInt(), undoable);
+        int numRanges = raf.readInt();
+        if (numRanges < 0) {
+            delta.full = true;
+            byte[] data = new byte[delta.pageSize];
+            raf.readFully(data);
+            delta.newBytes.add(data);
+            return delta;
+        }
+        while (numRanges-- > 0) {
+            int offset = raf.readInt();
+            int length = raf.readInt();
+            delta.ranges.add(new int[]{offset, length});
+            if (undoable) {
+                byte[] old = new byte[length];
+                raf.readFully(old);
+                delta.oldBytes.add(old);
+            }
+            byte[] data = new byte[length];
+            raf.readFully(data);
+            delta.newBytes.add(data);
+        }
+        return delta;
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    /** Skip a page delta written by writePageDelta.
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        @return the id of the page
+    */
+    PageId skipPageDelta(RandomAccessFile raf, boolean undoable) throws IOException {
+        raf.readUTF();
+        PageId pid = readPageId(raf);
+        int pageSize = raf.readInt();
+        int numRanges = raf.readInt();
+        if (numRanges < 0) {
+            raf.skipBytes(pageSize);
+            return pid;
+        }
+        while (numRanges-- > 0) {
+            raf.readInt();
+            int length = raf.readInt();
+            raf.skipBytes(undoable ? 2 * length : length);
+        }
+        return pid;
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+    /** Build a page of the given class from its serialized data. */
+    Page newPage(String pageClassName, PageId pid, byte[] data) throws IOException {
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+            try {
+                return (Page) pageClass.getConstructor(pid.getClass(), byte[].class).newInstance(pid, data);
+            } catch (NoSuchMethodException e) {
+                //B+树的叶子页和内部页还需要所在文件的key field
+                BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                return (Page) pageClass.getConstructor(pid.getClass(), byte[].class, int.class)
+                        .newInstance(pid, data, file.keyField());
+            }
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
-        return newPage;
+    }
 
+    /** @return the data of the page on disk, or an empty page if the file
+        does not reach it yet
+    */
+    byte[] readPageBytes(PageId pid, int pageSize) {
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            return databaseFile.readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[pageSize];
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -309,50 +513,138 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        <p>
+        The checkpoint is fuzzy: no page is written. Instead the record
+        carries the dirty page table of the BufferPool, and recovery
+        starts redo at the oldest log record that may not be on disk.
+        The BufferPool is only held while its dirty page table is copied,
+        so transactions keep running while the checkpoint is written.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
+        synchronized (this) {
+            preAppend();
+        }
+        Map<PageId, Long> dirtyPages;
+        long dptOffset;
+        //只在拷贝脏页表时持有BufferPool的锁；此后写入的日志都在dptOffset之后
         synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+            dirtyPages = Database.getBufferPool().getDirtyPageTable();
+            dptOffset = currentOffset;
+        }
+        long endOffset;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            long startCpOffset, endCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = raf.getFilePointer();
+            raf.writeInt(CHECKPOINT_RECORD);
+            raf.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            raf.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                raf.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                raf.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            raf.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, Long> entry : dirtyPages.entrySet()) {
+                writePageId(raf, entry.getKey());
+                raf.writeLong(entry.getValue());
             }
+            raf.writeLong(dptOffset);
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            endCpOffset = raf.getFilePointer();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.seek(endCpOffset);
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            endOffset = currentOffset;
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
+        forceUpTo(endOffset);
 
         logTruncate();
     }
 
+    /** Skip the body of a CHECKPOINT record, after its type and tid and
+        up to (not including) its start offset.
+
+        @return the end of the log when the dirty page table was taken
+    */
+    long skipCheckpoint(RandomAccessFile raf) throws IOException {
+        int numTransactions = raf.readInt();
+        while (numTransactions-- > 0) {
+            raf.readLong();
+            raf.readLong();
+        }
+        int numDirtyPages = raf.readInt();
+        while (numDirtyPages-- > 0) {
+            readPageId(raf);
+            raf.readLong();
+        }
+        return raf.readLong();
+    }
+
+    void writePageId(RandomAccessFile raf, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
+        raf.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            raf.writeInt(j);
+        }
+    }
+
+    PageId readPageId(RandomAccessFile raf) throws IOException {
+        String idClassName = raf.readUTF();
+        int numIdArgs = raf.readInt();
+        Object[] idArgs = new Object[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++) {
+            idArgs[i] = raf.readInt();
+        }
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    /** @return the id of the page delta at the current position, without moving past it */
+    PageId peekPageId(RandomAccessFile raf) throws IOException {
+        long offset = raf.getFilePointer();
+        raf.readUTF();
+        PageId pid = readPageId(raf);
+        raf.seek(offset);
+        return pid;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
+        consumption.
+        <p>
+        Truncation moves every record, so it holds the BufferPool as well,
+        and shifts the recLSNs of the pages not yet written back by the same
+        amount before any of them can be logged or checkpointed again.
+    */
+    public void logTruncate() throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                truncate();
+            }
+        }
+    }
+
+    private void truncate() throws IOException {
         preAppend();
         raf.seek(0);
         long cpLoc = raf.readLong();
@@ -379,6 +671,13 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+            //redo从脏页表中最早的日志开始，之前的日志不能截掉
+            int numDirtyPages = raf.readInt();
+            while (numDirtyPages-- > 0) {
+                readPageId(raf);
+                minLogRecord = Math.min(minLogRecord, raf.readLong());
+            }
+            minLogRecord = Math.min(minLogRecord, raf.readLong());
         }
 
         // we can truncate everything before minLogRecord
@@ -388,6 +687,9 @@ public class LogFile {
         logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
 
         raf.seek(minLogRecord);
+        for (List<Long> updates : tidToUpdates.values()) {
+            updates.clear();
+        }
 
         //have to rewrite log records since offsets are different after truncation
         while (true) {
@@ -403,11 +705,14 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    writePageDelta(logNew, readPageDelta(raf, true));
+                    List<Long> updates = tidToUpdates.get(record_tid);
+                    if (updates != null) {
+                        updates.add(newStart);
+                    }
+                    break;
+                case CLR_RECORD:
+                    writePageDelta(logNew, readPageDelta(raf, false));
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
@@ -418,9 +723,19 @@ public class LogFile {
                         logNew.writeLong(xid);
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
+                    int numDirtyPages = raf.readInt();
+                    logNew.writeInt(numDirtyPages);
+                    while (numDirtyPages-- > 0) {
+                        writePageId(logNew, readPageId(raf));
+                        logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                    }
+                    logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
                     break;
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    //只更新仍然活跃的事务，已经结束的事务不能重新加入
+                    if (tidToFirstLogRecord.containsKey(record_tid)) {
+                        tidToFirstLogRecord.put(record_tid,newStart);
+                    }
                     break;
                 }
 
@@ -435,71 +750,62 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            raf.seek(raf.length());
+            newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+            currentOffset = raf.getFilePointer();
+            //新文件的offset重新开始计算，下一次force一定会同步
+            durableOffset = 0;
+        }
+        //旧日志中的位置o在新日志中是o - minLogRecord + LONG_SIZE
+        Database.getBufferPool().shiftRecLSNs(minLogRecord - LONG_SIZE);
         //print();
     }
 
+    /** @return true if the transaction has a BEGIN record in the log and
+        has neither committed nor aborted yet
+    */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** Rollback the transaction if it is still active in the log; does
+        nothing otherwise (e.g. it was never logged, or logAbort already
+        rolled it back).
+
+        @param tid The transaction to rollback
+    */
+    public void rollbackIfActive(TransactionId tid) throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                if (isActive(tid)) {
+                    rollback(tid);
+                }
+            }
+        }
+    }
+
     /** Rollback the specified transaction, setting the state of any
         of pages it updated to their pre-updated state.  To preserve
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        Only the update records of the transaction are read; the old
+        bytes of each page are applied in reverse order to the page on
+        disk, and a compensation (CLR) record is logged for each page that
+        is restored.
 
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
-                Long tidOffset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(tidOffset);
-                while (true){
-                    try {
-                        int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                        switch (cpType) {
-                            case BEGIN_RECORD:
-                            case COMMIT_RECORD:
-                            case ABORT_RECORD:
-                                raf.readLong();
-                                break;
-                            case CHECKPOINT_RECORD:
-                                int numTransactions = raf.readInt();
-                                while (numTransactions-- > 0) {
-                                    long tid_ = raf.readLong();
-                                    long firstRecord = raf.readLong();
-                                }
-                                raf.readLong();
-                                break;
-                            case UPDATE_RECORD:
-                                Page before = readPageData(raf);
-                                readPageData(raf);
-                                raf.readLong();
-                                if(cpTid==tid.getId()){
-                                    BufferPool bufferPool = Database.getBufferPool();
-                                    bufferPool.discardPage(before.getId());
-                                    DbFile databaseFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                                    databaseFile.writePage(before);
-                                }
-                                break;
-                        }
-                    } catch (EOFException e) {
-                        //e.printStackTrace();
-                        break;
-                    }
-                }
-                //raf.seek(currentOffset);
-            }
-        }
+        rollback(tid.getId());
     }
 
     public void rollback(long tid)
@@ -508,141 +814,361 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                List<Long> updates = tidToUpdates.remove(tid);
+                if (updates == null) {
+                    return;
+                }
                 long lastOffset = raf.getFilePointer();
-                Long tidOffset = tidToFirstLogRecord.get(tid);
-                raf.seek(tidOffset);
-                while (true){
-                    try {
-                        int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                        switch (cpType) {
-                            case BEGIN_RECORD:
-                            case ABORT_RECORD:
-                            case COMMIT_RECORD:
-                                raf.readLong();
-                                break;
-                            case CHECKPOINT_RECORD:
-                                int numTransactions = raf.readInt();
-                                while (numTransactions-- > 0) {
-                                    long tid_ = raf.readLong();
-                                    long firstRecord = raf.readLong();
-                                }
-                                raf.readLong();
-                                break;
-                            case UPDATE_RECORD:
-                                Page before = readPageData(raf);
-                                readPageData(raf);
-                                raf.readLong();
-                                if(cpTid==tid){
-                                    BufferPool bufferPool = Database.getBufferPool();
-                                    bufferPool.discardPage(before.getId());
-                                    DbFile databaseFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                                    databaseFile.writePage(before);
-                                }
-                                break;
-                        }
-                    } catch (EOFException e) {
-                        //e.printStackTrace();
-                        break;
-                    }
+                Map<PageId, List<PageDelta>> deltas = new LinkedHashMap<>();
+                for (long offset : updates) {
+                    raf.seek(offset);
+                    raf.readInt();
+                    raf.readLong();
+                    PageDelta delta = readPageDelta(raf, true);
+                    deltas.computeIfAbsent(delta.pid, k -> new ArrayList<>()).add(delta);
                 }
                 raf.seek(lastOffset);
+                for (List<PageDelta> pageDeltas : deltas.values()) {
+                    compensate(tid, pageDeltas);
+                }
             }
         }
     }
 
+    /** Undo the changes of tid to a page: apply the old bytes of its
+        deltas, latest first, to the page on disk, log a CLR with the
+        restored bytes, then write the page out and drop the cached copy.
+        The page on disk has every logged update of tid, since they were
+        logged when the page was written.
+        Must be called with the BufferPool and this locked.
+
+        @param deltas the deltas of tid to the page, in log order
+    */
+    private void compensate(long tid, List<PageDelta> deltas) throws IOException {
+        PageDelta first = deltas.get(0);
+        byte[] current = readPageBytes(first.pid, first.pageSize);
+        byte[] restored = current.clone();
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            deltas.get(i).undo(restored);
+        }
+        logClr(tid, PageDelta.diff(first.pageClassName, first.pid, current, restored, false));
+        Database.getBufferPool().discardPage(first.pid);
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(first.pid.getTableId());
+        databaseFile.writePage(newPage(first.pageClassName, first.pid, restored));
+    }
+
+    private void logClr(long tid, PageDelta delta) throws IOException {
+        preAppend();
+        raf.writeInt(CLR_RECORD);
+        raf.writeLong(tid);
+        writePageDelta(raf, delta);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
-        try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
-        } catch (IOException e) {
-            System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
-            e.printStackTrace();
+    public void shutdown() {
+        //检查点和截断都要先拿BufferPool的锁，按同样的顺序加锁
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                try {
+                    logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                    raf.close();
+                } catch (IOException e) {
+                    System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery follows ARIES. The analysis pass rebuilds the dirty page
+        table and the set of loser transactions from the last checkpoint;
+        the redo pass repeats history, but only for pages in the dirty page
+        table and only from their recLSN on, and writes the pages with
+        several threads; the undo pass restores the pages of the losers,
+        logging a CLR for each, and ends them with an ABORT record. Pages
+        that already have a CLR are not undone again, so a crash during
+        recovery is harmless.
+        <p>
+        Our page formats have no room for a page LSN, so redo cannot ask a
+        page whether a record is already applied. Records only set bytes of
+        a page, so redo applies all of them from the recLSN on, in order,
+        to the page on disk.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
-                raf.seek(0);
-                long cpLoc = raf.readLong();
-                //seek到checkpoint这里，初始化undoList=L,在这undoList也就是tidToFirstLogRecord
-                if (cpLoc != -1L) {
-                    raf.seek(cpLoc);
-                    int cpType = raf.readInt();
-                    @SuppressWarnings("unused")
-                    long cpTid = raf.readLong();
-                    if (cpType != CHECKPOINT_RECORD) {
-                        throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-                    }
-                    int numTransactions = raf.readInt();
-                    while (numTransactions-- > 0) {
-                        long tid_ = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        tidToFirstLogRecord.put(tid_,firstRecord);
+                tidToFirstLogRecord.clear();
+                tidToUpdates.clear();
+                Map<PageId, Long> dirtyPages = new HashMap<>();
+                Map<Long, Set<PageId>> compensated = new HashMap<>();
+                analysis(dirtyPages, compensated);
+                redo(dirtyPages);
+                undo(compensated);
+                raf.seek(raf.length());
+                currentOffset = raf.getFilePointer();
+                force();
+            }
+         }
+    }
+
+    /** Analysis pass: scan from the last checkpoint (or the oldest record
+        it still needs) to the end of the log. On return dirtyPages maps
+        every page that may need redo to its recLSN, tidToFirstLogRecord
+        holds the loser transactions and compensated the pages each of
+        them already has a CLR for.
+    */
+    private void analysis(Map<PageId, Long> dirtyPages, Map<Long, Set<PageId>> compensated)
+            throws IOException {
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        //没有checkpoint时，所有日志之后的页面都可能不在disk上
+        long dptOffset = LONG_SIZE;
+        long scanStart = LONG_SIZE;
+        //seek到checkpoint这里，初始化undoList=L,在这undoList也就是tidToFirstLogRecord
+        if (cpLoc != -1L) {
+            raf.seek(cpLoc);
+            int cpType = raf.readInt();
+            @SuppressWarnings("unused")
+            long cpTid = raf.readLong();
+            if (cpType != CHECKPOINT_RECORD) {
+                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+            }
+            int numTransactions = raf.readInt();
+            while (numTransactions-- > 0) {
+                long tid_ = raf.readLong();
+                long firstRecord = raf.readLong();
+                tidToFirstLogRecord.put(tid_,firstRecord);
+            }
+            int numDirtyPages = raf.readInt();
+            while (numDirtyPages-- > 0) {
+                PageId pid = readPageId(raf);
+                dirtyPages.put(pid, raf.readLong());
+            }
+            dptOffset = raf.readLong();
+            scanStart = dptOffset;
+            for (long recLSN : dirtyPages.values()) {
+                scanStart = Math.min(scanStart, recLSN);
+            }
+        }
+        raf.seek(scanStart);
+        while (true) {
+            try {
+                long offset = raf.getFilePointer();
+                int cpType = raf.readInt();
+                long cpTid = raf.readLong();
+                switch (cpType) {
+                    case BEGIN_RECORD:
+                        tidToFirstLogRecord.put(cpTid, raf.readLong());
+                        break;
+                    case ABORT_RECORD:
+                    case COMMIT_RECORD:
+                        //ABORT之前的回滚已经写了CLR，redo时会重做
+                        raf.readLong();
+                        tidToFirstLogRecord.remove(cpTid);
+                        compensated.remove(cpTid);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(raf);
+                        raf.readLong();
+                        break;
+                    case UPDATE_RECORD:
+                    case CLR_RECORD: {
+                        PageId pid = skipPageDelta(raf, cpType == UPDATE_RECORD);
+                        if (cpType == UPDATE_RECORD) {
+                            //BEGIN在扫描起点之前的事务，从它在扫描范围内的第一条日志开始
+                            tidToFirstLogRecord.putIfAbsent(cpTid, offset);
+                        } else {
+                            compensated.computeIfAbsent(cpTid, k -> new HashSet<>()).add(pid);
+                        }
+                        raf.readLong();
+                        //复制脏页表之后写的日志，对应的页面都可能还不在disk上
+                        if (offset >= dptOffset) {
+                            dirtyPages.putIfAbsent(pid, offset);
+                        }
+                        break;
                     }
-                    raf.readLong();
                 }
-                //redo
-                while (true){
-                    try {
-                        int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                        switch (cpType) {
-                            case BEGIN_RECORD:
-                                long offset = raf.readLong();
-                                tidToFirstLogRecord.put(cpTid,offset);
-                                break;
-                            case ABORT_RECORD:
-                                rollback(cpTid);
-                                raf.readLong();
-                                tidToFirstLogRecord.remove(cpTid);
-                                break;
-                            case COMMIT_RECORD:
-                                raf.readLong();
-                                tidToFirstLogRecord.remove(cpTid);
-                                break;
-                            case CHECKPOINT_RECORD:
-                                int numTransactions = raf.readInt();
-                                while (numTransactions-- > 0) {
-                                    raf.readLong();
-                                    raf.readLong();
-                                }
-                                raf.readLong();
-                                break;
-                            case UPDATE_RECORD:
-                                Page before = readPageData(raf);
-                                Page after = readPageData(raf);
-                                raf.readLong();
-                                BufferPool bufferPool = Database.getBufferPool();
-                                bufferPool.discardPage(before.getId());
-                                DbFile databaseFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                                databaseFile.writePage(after);
-                                break;
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        compensated.keySet().retainAll(tidToFirstLogRecord.keySet());
+    }
+
+    /** Redo pass: collect the deltas of every page in the dirty page
+        table logged at or after its recLSN, apply them to the page on
+        disk and write the pages out.
+        Pages that grow a file are written by this thread in page order,
+        since a HeapFile can only be extended one page at a time; all
+        other pages are partitioned by page id across worker threads.
+    */
+    private void redo(Map<PageId, Long> dirtyPages) throws IOException {
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        long redoStart = Collections.min(dirtyPages.values());
+        Map<PageId, List<PageDelta>> deltas = new HashMap<>();
+        raf.seek(redoStart);
+        while (true) {
+            try {
+                long offset = raf.getFilePointer();
+                int cpType = raf.readInt();
+                raf.readLong();
+                switch (cpType) {
+                    case BEGIN_RECORD:
+                    case ABORT_RECORD:
+                    case COMMIT_RECORD:
+                        raf.readLong();
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(raf);
+                        raf.readLong();
+                        break;
+                    case UPDATE_RECORD:
+                    case CLR_RECORD: {
+                        PageId pid = peekPageId(raf);
+                        Long recLSN = dirtyPages.get(pid);
+                        if (recLSN == null || offset < recLSN) {
+                            skipPageDelta(raf, cpType == UPDATE_RECORD);
+                        } else {
+                            deltas.computeIfAbsent(pid, k -> new ArrayList<>())
+                                    .add(readPageDelta(raf, cpType == UPDATE_RECORD));
                         }
-                    } catch (EOFException e) {
-                        //e.printStackTrace();
+                        raf.readLong();
                         break;
                     }
                 }
-                //undo
-                Iterator<Long> undoList = tidToFirstLogRecord.keySet().iterator();
-                while (undoList.hasNext()){
-                    Long tid = undoList.next();
-                    rollback(tid);
+            } catch (EOFException e) {
+                break;
+            }
+        }
+
+        BufferPool bufferPool = Database.getBufferPool();
+        List<PageId> appends = new ArrayList<>();
+        List<List<PageId>> partitions = new ArrayList<>();
+        int workers = Math.max(1, Math.min(REDO_THREADS, deltas.size()));
+        for (int i = 0; i < workers; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (PageId pid : deltas.keySet()) {
+            bufferPool.discardPage(pid);
+            DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (databaseFile instanceof HeapFile && pid.getPageNumber() >= ((HeapFile) databaseFile).numPages()) {
+                appends.add(pid);
+            } else {
+                partitions.get((pid.hashCode() & Integer.MAX_VALUE) % workers).add(pid);
+            }
+        }
+        appends.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        for (PageId pid : appends) {
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(replay(deltas.get(pid)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (List<PageId> partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    for (PageId pid : partition) {
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(replay(deltas.get(pid)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("redo interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("redo failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** @return the page on disk with the new bytes of the deltas applied in order */
+    private Page replay(List<PageDelta> deltas) throws IOException {
+        PageDelta first = deltas.get(0);
+        byte[] data = readPageBytes(first.pid, first.pageSize);
+        for (PageDelta delta : deltas) {
+            delta.redo(data);
+        }
+        return newPage(first.pageClassName, first.pid, data);
+    }
+
+    /** Undo pass: restore every page each loser changed, skipping pages
+        it already has a CLR for, from the deltas collected in a single
+        scan from the oldest loser record; then log an ABORT record per
+        loser.
+    */
+    private void undo(Map<Long, Set<PageId>> compensated) throws IOException {
+        if (tidToFirstLogRecord.isEmpty()) {
+            return;
+        }
+        Map<Long, Map<PageId, List<PageDelta>>> deltas = new HashMap<>();
+        raf.seek(Collections.min(tidToFirstLogRecord.values()));
+        while (true) {
+            try {
+                int cpType = raf.readInt();
+                long cpTid = raf.readLong();
+                switch (cpType) {
+                    case BEGIN_RECORD:
+                    case ABORT_RECORD:
+                    case COMMIT_RECORD:
+                        raf.readLong();
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(raf);
+                        raf.readLong();
+                        break;
+                    case CLR_RECORD:
+                        skipPageDelta(raf, false);
+                        raf.readLong();
+                        break;
+                    case UPDATE_RECORD: {
+                        PageId pid = peekPageId(raf);
+                        Set<PageId> done = compensated.getOrDefault(cpTid, Collections.emptySet());
+                        if (tidToFirstLogRecord.containsKey(cpTid) && !done.contains(pid)) {
+                            deltas.computeIfAbsent(cpTid, k -> new LinkedHashMap<>())
+                                    .computeIfAbsent(pid, k -> new ArrayList<>())
+                                    .add(readPageDelta(raf, true));
+                        } else {
+                            skipPageDelta(raf, true);
+                        }
+                        raf.readLong();
+                        break;
+                    }
                 }
+            } catch (EOFException e) {
+                break;
             }
-         }
+        }
+        raf.seek(raf.length());
+        currentOffset = raf.getFilePointer();
+        for (Long tid : tidToFirstLogRecord.keySet()) {
+            for (List<PageDelta> pageDeltas : deltas.getOrDefault(tid, Collections.emptyMap()).values()) {
+                compensate(tid, pageDeltas);
+            }
+            preAppend();
+            raf.writeInt(ABORT_RECORD);
+            raf.writeLong(tid);
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+        }
+        tidToFirstLogRecord.clear();
     }
 
     /** Print out a human readable represenation of the log */
@@ -686,25 +1212,32 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    int numDirtyPages = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirtyPages);
+                    while (numDirtyPages-- > 0) {
+                        PageId pid = readPageId(raf);
+                        long recLSN = raf.readLong();
+                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": DIRTY PAGE: " + pid + ", FIRST LOG RECORD: " + recLSN);
+                    }
+                    System.out.println((raf.getFilePointer()) + ": DIRTY PAGE TABLE OFFSET: " + raf.readLong());
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
                 case UPDATE_RECORD:
-                    System.out.println(" (UPDATE)");
+                case CLR_RECORD:
+                    System.out.println(cpType == UPDATE_RECORD ? " (UPDATE)" : " (CLR)");
 
                     long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
-
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
-
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
-
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    PageDelta delta = readPageDelta(raf, cpType == UPDATE_RECORD);
+                    System.out.println(start + ": page " + delta.pid + " (" + delta.pageClassName + ")");
+                    if (delta.full) {
+                        System.out.println(start + ": full page data, " + delta.pageSize + " bytes");
+                    }
+                    for (int[] range : delta.ranges) {
+                        System.out.println(start + ": bytes " + range[0] + " TO " + (range[0] + range[1]));
+                    }
+                    System.out.println(start + " TO " + raf.getFilePointer() + ": page delta, "
+                            + delta.size() + " bytes of page data");
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
@@ -721,8 +1254,30 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every log record appended so far to disk. */
+    public void force() throws IOException {
+        forceUpTo(currentOffset);
+    }
+
+    /** Force the log to disk up to at least the given offset. Callers that
+        arrive while another thread is syncing wait for it, and return
+        without syncing again if that sync already covered their records.
+        <p>
+        Never takes the LogFile latch, so it may be called with or without it.
+
+        @param offset the end offset of the last record that must be durable
+    */
+    void forceUpTo(long offset) throws IOException {
+        synchronized (forceLock) {
+            if (durableOffset >= offset) {
+                return;
+            }
+            // 读取force前已经写入的所有日志，它们都会被这次fsync覆盖
+            long target = currentOffset;
+            raf.getChannel().force(true);
+            totalForces++;
+            durableOffset = Math.max(target, offset);
+        }
     }
 
 }
@@ -0,0 +1,185 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compressor in the LZ4 block format: a sequence of tokens, each a run of
+ * literal bytes followed by a copy of earlier output. Each token starts with
+ * a byte holding the number of literals (high four bits) and the length of
+ * the copy minus 4 (low four bits), either extended by following bytes of
+ * 255 and a final smaller one when it is 15; then the literals, then the
+ * distance back to the copied bytes as a little-endian short. The last token
+ * only has literals.
+ * <p>
+ * Matches are found with a single hash table probe per position, which is
+ * fast and compresses pages of repetitive tuples and empty space well.
+ *
+ * @see CompressedFileChannel
+ */
+final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    // LZ4的约定：最后5个字节总是字面量，最后一个匹配距结尾至少12字节
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_DISTANCE = 0xffff;
+
+    private Lz4() {
+    }
+
+    /**
+     * Compress src[srcOff, srcOff + srcLen) into dst.
+     *
+     * @return the length of the compressed data, or -1 if it does not fit in
+     * dst
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int end = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = 0;
+        int i = srcOff;
+        int limit = end - MF_LIMIT;
+        int matchLimit = end - LAST_LITERALS;
+        while (i < limit) {
+            int seq = readInt(src, i);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (i + len < matchLimit && src[ref + len] == src[i + len]) {
+                len++;
+            }
+            op = writeSequence(src, anchor, i - anchor, i - ref, len, dst, op);
+            if (op < 0) {
+                return -1;
+            }
+            i += len;
+            anchor = i;
+        }
+        return writeSequence(src, anchor, end - anchor, 0, 0, dst, op);
+    }
+
+    /**
+     * Write a token of the given literals and match (none if matchLen is 0).
+     *
+     * @return the new output position, or -1 if dst is too short
+     */
+    private static int writeSequence(byte[] src, int literals, int litLen, int distance, int matchLen,
+                                     byte[] dst, int op) {
+        int needed = 1 + litLen / 255 + 1 + litLen + (matchLen > 0 ? 2 + matchLen / 255 + 1 : 0);
+        if (op + needed > dst.length) {
+            return -1;
+        }
+        int token = Math.min(litLen, 15) << 4;
+        if (matchLen > 0) {
+            token |= Math.min(matchLen - MIN_MATCH, 15);
+        }
+        dst[op++] = (byte) token;
+        op = writeLength(litLen, dst, op);
+        System.arraycopy(src, literals, dst, op, litLen);
+        op += litLen;
+        if (matchLen > 0) {
+            dst[op++] = (byte) distance;
+            dst[op++] = (byte) (distance >>> 8);
+            op = writeLength(matchLen - MIN_MATCH, dst, op);
+        }
+        return op;
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        if (len < 15) {
+            return op;
+        }
+        len -= 15;
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    /**
+     * Decompress src[srcOff, srcOff + srcLen) into dst[dstOff, dstOff +
+     * dstLen), which it must fill exactly.
+     *
+     * @throws IOException if src is not valid compressed data of dstLen
+     *                     bytes
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = dstOff;
+        int oend = dstOff + dstLen;
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+            int litLen = token >>> 4;
+            if (litLen == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("truncated literal length");
+                    }
+                    b = src[ip++] & 0xff;
+                    litLen += b;
+                } while (b == 255);
+            }
+            if (litLen > end - ip || litLen > oend - op) {
+                throw new IOException("literals past the end of the data");
+            }
+            System.arraycopy(src, ip, dst, op, litLen);
+            ip += litLen;
+            op += litLen;
+            if (ip == end) {
+                break;
+            }
+
+            if (end - ip < 2) {
+                throw new IOException("truncated match distance");
+            }
+            int distance = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op - dstOff) {
+                throw new IOException("match distance out of range");
+            }
+            int matchLen = token & 15;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("truncated match length");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            if (matchLen > oend - op) {
+                throw new IOException("match past the end of the data");
+            }
+            //匹配可能与输出重叠，逐字节复制
+            for (int k = 0; k < matchLen; k++, op++) {
+                dst[op] = dst[op - distance];
+            }
+        }
+        if (op != oend) {
+            throw new IOException("decompressed " + (op - dstOff) + " bytes instead of " + dstLen);
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,362 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * A page of a HeapFile that stores variable-length tuples, for tables whose
+ * strings are mostly much shorter than Type.STRING_LEN. Where a HeapPage
+ * gives every tuple a fixed-size slot of TupleDesc.getSize() bytes, a
+ * SlottedPage stores each tuple in the variable-length format of its field
+ * types (see Type#serializeVariable), so strings only take the bytes they
+ * need.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the number of bytes from the start of
+ * the tuple data to the end of the page. The slot directory follows, one
+ * entry of two unsigned shorts (offset and length of the tuple) per slot;
+ * a length of 0 marks an empty slot. Tuples are stored from the end of the
+ * page towards the directory:
+ * <pre>
+ * | numSlots | dataSize | slot 0 | slot 1 | ... |   free   | tuple 1 | tuple 0 |
+ * </pre>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on the
+ * page. The space of deleted tuples is reclaimed by moving the remaining
+ * tuples together when an insert needs it; otherwise tuples stay where
+ * they are, so changes to a page touch few bytes (see LogFile.PageDelta).
+ * An all-zero page is an empty SlottedPage.
+ *
+ * @see HeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+    // 页头：目录中的槽数和元组数据的字节数，各2字节
+    static final int HEADER_SIZE = 4;
+    // 目录中每个槽：元组的偏移和长度，各2字节
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+    private final int minTupleSize;
+
+    private final Tuple[] tuples;
+    private final byte[][] records;  // 每个槽中元组的序列化结果，空槽为null
+    private final int[] offsets;
+    private int numSlots;
+    private int dataStart;  // 元组数据区的起点
+    private int usedBytes;  // 元组数据区中仍在使用的字节数
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean dirty;
+    private TransactionId dirtyTransactionId;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described in the class comment.
+     *
+     * @throws IOException if the data is not a valid page of the table
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        if (pageSize > 1 << 16) {
+            throw new IOException("slotted pages are at most 64KB");
+        }
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i).getMinLen();
+        }
+        this.minTupleSize = size;
+
+        int maxSlots = (pageSize - HEADER_SIZE) / (SLOT_SIZE + minTupleSize);
+        tuples = new Tuple[maxSlots];
+        records = new byte[maxSlots][];
+        offsets = new int[maxSlots];
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        numSlots = buf.getShort(0) & 0xffff;
+        dataStart = pageSize - (buf.getShort(2) & 0xffff);
+        if (numSlots > maxSlots || dataStart < HEADER_SIZE + SLOT_SIZE * numSlots) {
+            throw new IOException("corrupt slotted page " + id);
+        }
+        for (int i = 0; i < numSlots; i++) {
+            int offset = buf.getShort(HEADER_SIZE + SLOT_SIZE * i) & 0xffff;
+            int length = buf.getShort(HEADER_SIZE + SLOT_SIZE * i + 2) & 0xffff;
+            if (length == 0) {
+                continue;
+            }
+            if (offset < dataStart || offset + length > pageSize) {
+                throw new IOException("corrupt slot " + i + " of " + id);
+            }
+            offsets[i] = offset;
+            records[i] = Arrays.copyOfRange(data, offset, offset + length);
+            tuples[i] = readTuple(records[i], i);
+            usedBytes += length;
+        }
+        setBeforeImage();
+    }
+
+    private Tuple readTuple(byte[] record, int slot) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parseVariable(dis));
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error in slot " + slot + " of " + pid, e);
+        }
+        return t;
+    }
+
+    private byte[] writeTuple(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).serializeVariable(t.getField(j), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    private int tupleSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j).getVariableLen(t.getField(j));
+        }
+        return size;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format described in the class comment.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putShort(0, (short) numSlots);
+        buf.putShort(2, (short) (pageSize - dataStart));
+        for (int i = 0; i < numSlots; i++) {
+            if (records[i] == null) {
+                continue;
+            }
+            buf.putShort(HEADER_SIZE + SLOT_SIZE * i, (short) offsets[i]);
+            buf.putShort(HEADER_SIZE + SLOT_SIZE * i + 2, (short) records[i].length);
+            System.arraycopy(records[i], 0, data, offsets[i], records[i].length);
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes not used by tuples or the slot directory,
+     * including the space of deleted tuples
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - SLOT_SIZE * numSlots - usedBytes;
+    }
+
+    private int freeSlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (records[i] == null) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    private boolean fits(int size) {
+        int slot = freeSlot();
+        if (slot == records.length) {
+            return false;
+        }
+        return size + (slot == numSlots ? SLOT_SIZE : 0) <= getFreeSpace();
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return td.equals(t.getTupleDesc()) && fits(tupleSize(t));
+    }
+
+    public boolean isFull() {
+        return !fits(minTupleSize);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot of the
+     * directory or in a new one.
+     *
+     * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch.");
+        }
+        byte[] record = writeTuple(t);
+        if (!fits(record.length)) {
+            throw new DbException("the page is full (no room for the tuple)");
+        }
+        int slot = freeSlot();
+        int directoryEnd = HEADER_SIZE + SLOT_SIZE * Math.max(numSlots, slot + 1);
+        if (dataStart - record.length < directoryEnd) {
+            compact();
+        }
+        dataStart -= record.length;
+        offsets[slot] = dataStart;
+        records[slot] = record;
+        tuples[slot] = t;
+        usedBytes += record.length;
+        numSlots = Math.max(numSlots, slot + 1);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Move the tuples to the end of the page, reclaiming the space of
+     * deleted tuples.
+     */
+    private void compact() {
+        //保持元组原来的先后顺序，靠近页尾的元组不用移动
+        Integer[] order = new Integer[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(offsets[b], offsets[a]));
+        int end = pageSize;
+        for (int i : order) {
+            if (records[i] != null) {
+                end -= records[i].length;
+                offsets[i] = end;
+            }
+        }
+        dataStart = end;
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("this tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot >= numSlots || records[slot] == null) {
+            throw new DbException("tuple slot is already empty.");
+        }
+        if (!tuples[slot].equals(t)) {
+            throw new DbException("this tuple is not on this page");
+        }
+        usedBytes -= records[slot].length;
+        records[slot] = null;
+        tuples[slot] = null;
+        offsets[slot] = 0;
+        //去掉目录末尾的空槽
+        while (numSlots > 0 && records[numSlots - 1] == null) {
+            numSlots--;
+        }
+        if (usedBytes == 0) {
+            dataStart = pageSize;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTransactionId = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtyTransactionId : null;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (records[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order.
+     * <p>
+     * Like HeapPage's, the iterator works on a snapshot of the tuples taken
+     * when it is created.
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> snapshot = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            if (tuples[i] != null) {
+                snapshot.add(tuples[i]);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
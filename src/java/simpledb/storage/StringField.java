@@ -69,6 +69,26 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string in the variable-length format of slotted pages: two
+	 * bytes of string length followed by the string, without padding.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 * @see simpledb.storage.SlottedPage
+	 */
+	public void serializeVariable(DataOutputStream dos) throws IOException {
+		dos.writeShort(value.length());
+		dos.writeBytes(value);
+	}
+
+	/**
+	 * @return the number of bytes serializeVariable writes
+	 */
+	public int getVariableLen() {
+		return 2 + value.length();
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
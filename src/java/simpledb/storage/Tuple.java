@@ -1,7 +1,6 @@
 package simpledb.storage;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
@@ -16,7 +15,8 @@ public class Tuple implements Serializable {
     private static final long serialVersionUID = 1L;
     private TupleDesc schema;
     private RecordId rid;
-    private ArrayList<Field> fieldsList;
+    // 直接用数组保存字段，每个元组只分配对象本身和这个数组
+    private final Field[] fields;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -27,9 +27,7 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         schema = td;
-        int len = td.numFields();
-        Field[] fields = new Field[len];
-        fieldsList = new ArrayList<>(Arrays.asList(fields));
+        fields = new Field[td.numFields()];
     }
 
     /**
@@ -69,7 +67,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fieldsList.set(i,f);
+        fields[i] = f;
     }
 
     /**
@@ -79,7 +77,7 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // some code goes here
         //return null;
-        return fieldsList.get(i);
+        return fields[i];
     }
 
     /**
@@ -95,10 +93,10 @@ public class Tuple implements Serializable {
         //throw new UnsupportedOperationException("Implement this");
         StringBuilder stringBuilder = new StringBuilder();
         int len=schema.numFields();
-        stringBuilder.append(fieldsList.get(0).toString());
+        stringBuilder.append(fields[0].toString());
         for (int i = 1; i < len; i++) {
             stringBuilder.append("\t");
-            stringBuilder.append(fieldsList.get(i).toString());
+            stringBuilder.append(fields[i].toString());
         }
         return stringBuilder.toString();
     }
@@ -109,7 +107,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields() {
         // some code goes here
         //return null;
-        return fieldsList.iterator();
+        return Arrays.asList(fields).iterator();
     }
 
     /**
@@ -120,16 +118,44 @@ public class Tuple implements Serializable {
         this.schema = td;
     }
 
+    /**
+     * @param td     the TupleDesc of the new tuple, with the types of the given
+     *               fields, like getTupleDesc().project(fields)
+     * @param fields the indexes of the fields to keep
+     * @return a tuple with just the given fields of this tuple, and its
+     * RecordId
+     */
+    public Tuple project(TupleDesc td, int[] fields) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < fields.length; i++) {
+            t.fields[i] = this.fields[fields[i]];
+        }
+        t.rid = rid;
+        return t;
+    }
+
+    /**
+     * @param td the TupleDesc of the new tuple, TupleDesc.merge of the
+     *           TupleDescs of t1 and t2
+     * @return a tuple with the fields of t1 followed by those of t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        System.arraycopy(t1.fields, 0, t.fields, 0, t1.fields.length);
+        System.arraycopy(t2.fields, 0, t.fields, t1.fields.length, t2.fields.length);
+        return t;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Tuple)) return false;
         Tuple tuple = (Tuple) o;
-        return Objects.equals(schema, tuple.schema) && Objects.equals(rid, tuple.rid) && Objects.equals(fieldsList, tuple.fieldsList);
+        return Objects.equals(schema, tuple.schema) && Objects.equals(rid, tuple.rid) && Arrays.equals(fields, tuple.fields);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(schema, rid, fieldsList);
+        return Objects.hash(schema, rid, Arrays.hashCode(fields));
     }
 }
@@ -0,0 +1,90 @@
+package simpledb.storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A chunk of tuples passed between operators at once by
+ * OpIterator.nextBatch, so that the per-call overhead of the iterator
+ * interface is paid once per batch rather than once per tuple. A batch is
+ * meant to be reused: the callee clears it and fills it up to its capacity.
+ *
+ * @see simpledb.execution.OpIterator#nextBatch
+ * @see DbFileIterator#nextBatch
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of tuples in a batch
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Tuple[] tuples;
+    private int size = 0;
+
+    public TupleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the largest number of tuples the batch holds
+     */
+    public TupleBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.tuples = new Tuple[capacity];
+    }
+
+    /**
+     * @return the number of tuples in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return tuples.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    /**
+     * @return the i-th tuple of the batch
+     * @throws IndexOutOfBoundsException if i is not less than size()
+     */
+    public Tuple get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("tuple " + i + " of a batch of " + size);
+        }
+        return tuples[i];
+    }
+
+    /**
+     * Append a tuple to the batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        tuples[size++] = t;
+    }
+
+    /**
+     * Empty the batch, dropping its references to the tuples.
+     */
+    public void clear() {
+        Arrays.fill(tuples, 0, size, null);
+        size = 0;
+    }
+}
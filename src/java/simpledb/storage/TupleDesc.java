@@ -207,6 +207,19 @@ public class TupleDesc implements Serializable {
         return tupleDesc;
     }
 
+    /**
+     * @param fields the indexes of fields of this TupleDesc, in the order
+     *               they are wanted
+     * @return a TupleDesc with just the given fields
+     */
+    public TupleDesc project(int[] fields) {
+        TupleDesc tupleDesc = new TupleDesc();
+        for (int i : fields) {
+            tupleDesc.TDItemList.add(TDItemList.get(i));
+        }
+        return tupleDesc;
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
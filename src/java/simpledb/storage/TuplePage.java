@@ -0,0 +1,80 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of a HeapFile, holding tuples of the table in no particular order.
+ * HeapPage stores them in fixed-size slots, SlottedPage in variable-length
+ * records.
+ *
+ * @see HeapFile
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *                     tupledesc does not match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return whether insertTuple would succeed for the specified tuple
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return whether no tuple of the table fits on this page any more
+     */
+    boolean isFull();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all the
+     * given predicates, each with just the given fields and the RecordId of
+     * the stored tuple. The predicates are evaluated on the tuples as stored,
+     * before they are projected, so tuples that do not match are never
+     * copied.
+     *
+     * @param predicates the predicates on the fields of the table
+     * @param fields     the indexes of the fields to return, in the order
+     *                   they are wanted; null for all fields
+     */
+    default Iterator<Tuple> iterator(List<Predicate> predicates, int[] fields) {
+        List<Tuple> matching = new ArrayList<>();
+        TupleDesc projected = null;
+        for (Iterator<Tuple> it = iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            if (!Predicate.filterAll(predicates, t)) {
+                continue;
+            }
+            if (fields != null) {
+                if (projected == null) {
+                    projected = t.getTupleDesc().project(fields);
+                }
+                t = t.project(projected, fields);
+            }
+            matching.add(t);
+        }
+        return matching.iterator();
+    }
+}
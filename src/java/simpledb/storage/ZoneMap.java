@@ -0,0 +1,181 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The zone map of a HeapFile: for every page, the smallest and largest
+ * value of each INT_TYPE column on it, so that a scan with a predicate on
+ * such a column can skip the pages whose range cannot match (see
+ * HeapFile.iterator(tid, predicate)). On a table whose rows arrive in the
+ * order of a column, like a timestamp, a range predicate on that column
+ * only reads the few pages it can match.
+ * <p>
+ * The map is kept in a small file next to the heap file ("&lt;file&gt;.zmap"):
+ * one record per page, a byte telling whether the page has an entry, then
+ * the minimum and maximum of every INT_TYPE column. A page without an entry
+ * (e.g. when the map file is missing or the page was appended by someone
+ * else) may hold anything and is always read; a scan with a predicate that
+ * reads such a page records its ranges, so files written by HeapFileEncoder
+ * get their zone map on their first filtered scan.
+ * <p>
+ * A range may be wider than the values on its page, never narrower: every
+ * tuple inserted through the HeapFile widens the range of its page in
+ * memory right away, before the page is even dirty on disk, and writing a
+ * page records the exact ranges of what is written. Deletes leave the
+ * ranges as they are until then.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+    private final File file;
+    private final DbFileChannel channel;
+    private final int[] columns;  // INT_TYPE的列
+    private final int recordSize;
+    private byte[] records = null;  // protected by this, 懒加载
+
+    /**
+     * @param heapFile the file of the HeapFile the map belongs to
+     * @param td       the TupleDesc of the HeapFile
+     */
+    ZoneMap(File heapFile, TupleDesc td) {
+        this.file = fileFor(heapFile);
+        this.channel = new DbFileChannel(file);
+        int n = 0;
+        int[] ints = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[n++] = i;
+            }
+        }
+        this.columns = Arrays.copyOf(ints, n);
+        this.recordSize = 1 + 8 * n;
+    }
+
+    /**
+     * @return the file that holds the zone map of a heap file
+     */
+    static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".zmap");
+    }
+
+    private byte[] records(int pgNo) throws IOException {
+        if (records == null) {
+            long size = file.exists() ? channel.size() : 0;
+            records = new byte[(int) (size / recordSize * recordSize)];
+            channel.read(records, 0);
+        }
+        if ((long) (pgNo + 1) * recordSize > records.length) {
+            records = Arrays.copyOf(records, Math.max((pgNo + 1) * recordSize, records.length * 2));
+        }
+        return records;
+    }
+
+    private int column(int field) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == field) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record the ranges of the tuples on a page that is written to disk.
+     */
+    synchronized void set(int pgNo, TuplePage page) throws IOException {
+        if (columns.length == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(records(pgNo), pgNo * recordSize, recordSize);
+        buf.put((byte) 1);
+        // 空页的最小值大于最大值，任何谓词都不会读它
+        for (int i = 0; i < columns.length; i++) {
+            buf.putInt(Integer.MAX_VALUE).putInt(Integer.MIN_VALUE);
+        }
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            widen(pgNo, it.next());
+        }
+        channel.write(Arrays.copyOfRange(records, pgNo * recordSize, (pgNo + 1) * recordSize),
+                (long) pgNo * recordSize);
+    }
+
+    /**
+     * Record the ranges of a page read by a scan if the map has no entry for
+     * it yet, e.g. in a file written by HeapFileEncoder. The page must be
+     * clean and held under its latch, so that its tuples are those on disk
+     * and no insert widens its range meanwhile.
+     */
+    synchronized void learn(int pgNo, TuplePage page) throws IOException {
+        if (columns.length > 0 && records(pgNo)[pgNo * recordSize] == 0) {
+            set(pgNo, page);
+        }
+    }
+
+    /**
+     * Widen the ranges of a page to cover a tuple inserted on it. Only
+     * changes the map in memory; the page is recorded when it is written.
+     */
+    synchronized void widen(int pgNo, Tuple t) throws IOException {
+        if (columns.length == 0) {
+            return;
+        }
+        byte[] data = records(pgNo);
+        int offset = pgNo * recordSize;
+        if (data[offset] == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0; i < columns.length; i++) {
+            int v = ((IntField) t.getField(columns[i])).getValue();
+            int pos = offset + 1 + 8 * i;
+            buf.putInt(pos, Math.min(buf.getInt(pos), v));
+            buf.putInt(pos + 4, Math.max(buf.getInt(pos + 4), v));
+        }
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy the predicate, true
+     * if some may
+     */
+    synchronized boolean mayMatch(int pgNo, Predicate p) throws IOException {
+        int c = p == null ? -1 : column(p.getField());
+        if (c < 0 || p.getOperand().getType() != Type.INT_TYPE) {
+            return true;
+        }
+        byte[] data = records(pgNo);
+        int offset = pgNo * recordSize;
+        if (data[offset] == 0) {
+            return true;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int min = buf.getInt(offset + 1 + 8 * c);
+        int max = buf.getInt(offset + 1 + 8 * c + 4);
+        if (min > max) {
+            return false;
+        }
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+            case EQUALS:
+                return min <= v && v <= max;
+            case GREATER_THAN:
+                return max > v;
+            case GREATER_THAN_OR_EQ:
+                return max >= v;
+            case LESS_THAN:
+                return min < v;
+            case LESS_THAN_OR_EQ:
+                return min <= v;
+            case NOT_EQUALS:
+                return min != v || max != v;
+            default:
+                return true;
+        }
+    }
+}
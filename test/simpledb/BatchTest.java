@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BatchTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private OpIterator filterProject() {
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, left.getId(), "l"));
+        return new Project(Collections.singletonList(0), new Type[]{Type.INT_TYPE}, filter);
+    }
+
+    private static List<Tuple> batches(OpIterator it, int capacity) throws Exception {
+        List<Tuple> res = new ArrayList<>();
+        TupleBatch batch = new TupleBatch(capacity);
+        it.open();
+        while (it.nextBatch(batch) > 0) {
+            assertTrue(batch.size() <= capacity);
+            for (int i = 0; i < batch.size(); i++) {
+                res.add(batch.get(i));
+            }
+        }
+        it.close();
+        return res;
+    }
+
+    /**
+     * Reading a plan a batch at a time gives the same tuples as reading it a
+     * tuple at a time, whatever the size of the batches
+     */
+    @Test public void sameTuples() throws Exception {
+        List<Tuple> expected = TestUtil.rows(filterProject());
+        assertTrue(expected.size() > TupleBatch.DEFAULT_CAPACITY);
+        assertEquals(expected, batches(filterProject(), TupleBatch.DEFAULT_CAPACITY));
+        assertEquals(expected, batches(filterProject(), 7));
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<Tuple> joined = TestUtil.rows(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        assertFalse(joined.isEmpty());
+        assertEquals(joined, batches(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")), 100));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Batches and single tuples can be mixed, and a tuple fetched by hasNext
+     * comes first in the next batch
+     */
+    @Test public void mixed() throws Exception {
+        List<Tuple> expected = TestUtil.rows(filterProject());
+
+        OpIterator it = filterProject();
+        List<Tuple> found = new ArrayList<>();
+        TupleBatch batch = new TupleBatch(100);
+        it.open();
+        while (it.hasNext()) {
+            found.add(it.next());
+            assertTrue(it.hasNext());
+            if (it.nextBatch(batch) == 0) {
+                break;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                found.add(batch.get(i));
+            }
+        }
+        assertEquals(0, it.nextBatch(batch));
+        it.rewind();
+        assertTrue(it.nextBatch(batch) > 0);
+        assertEquals(expected.get(0), batch.get(0));
+        it.close();
+        assertEquals(expected, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolPinTest extends TestUtil.CreateHeapFile {
+    private PageId p0, p1, p2;
+    private TransactionId tid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // populate the file with three clean pages
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            empty.insertTuple(t, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        p2 = new HeapPageId(empty.getId(), 2);
+        tid = new TransactionId();
+
+        bp = Database.resetBufferPool(2);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() and BufferPool.unpinPage().
+     * A pinned page must not be chosen for eviction.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p0));
+        assertEquals(1, bp.getPinCount(p1));
+
+        bp.unpinPage(tid, p1);
+        assertEquals(0, bp.getPinCount(p1));
+
+        // p1 is the only candidate
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p0));
+        assertEquals(1, bp.getPinCount(p2));
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() when every frame is pinned.
+     */
+    @Test(expected = DbException.class)
+    public void allPinnedFails() throws Exception {
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete().
+     * Pins that were not released explicitly are dropped on commit.
+     */
+    @Test public void transactionCompleteUnpins() throws Exception {
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(p0));
+        assertEquals(0, bp.getPinCount(p1));
+
+        TransactionId tid2 = new TransactionId();
+        bp.getPage(tid2, p2, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p2));
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() on a miss.
+     * The page is read without holding the BufferPool, so other misses go
+     * ahead meanwhile, and a second request for the same page waits for
+     * the first read instead of reading the page again.
+     */
+    @Test(timeout = 10000)
+    public void missReadsOutsideBufferPool() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger reads = new AtomicInteger();
+        HeapFile slow = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public Page readPage(PageId pid) {
+                if (pid.equals(p0)) {
+                    reads.incrementAndGet();
+                    reading.countDown();
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(slow, "slow");
+
+        AtomicReference<Page> first = new AtomicReference<>();
+        AtomicReference<Page> second = new AtomicReference<>();
+        Thread loader = new Thread(() -> first.set(getQuietly(new TransactionId(), p0)));
+        loader.start();
+        reading.await();
+        Thread waiter = new Thread(() -> second.set(getQuietly(new TransactionId(), p0)));
+        waiter.start();
+
+        // p0 is still being read
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p1));
+
+        release.countDown();
+        loader.join();
+        waiter.join();
+        assertNotNull(first.get());
+        assertSame(first.get(), second.get());
+        assertEquals(1, reads.get());
+        assertEquals(2, bp.getPinCount(p0));
+    }
+
+    private Page getQuietly(TransactionId t, PageId pid) {
+        try {
+            return bp.getPage(t, pid, Permissions.READ_ONLY);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPinTest.class);
+    }
+}
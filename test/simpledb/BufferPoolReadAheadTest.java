@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    // two int columns: 8 bytes and a header bit per tuple
+    private static final int ROWS = PAGES * (BufferPool.getPageSize() * 8 / (8 * 8 + 1));
+
+    private TestUtil.CountingHeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null).getFile();
+        hf = new TestUtil.CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "readahead");
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    /**
+     * Unit test for BufferPool.readAhead(): pages read ahead are served
+     * from the buffer pool.
+     */
+    @Test public void readAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        // next is applied to a page once it is in the buffer pool
+        AtomicInteger cached = new AtomicInteger();
+        assertTrue(bp.readAhead(new HeapPageId(hf.getId(), 0), 10,
+                p -> {
+                    cached.incrementAndGet();
+                    int next = p.getId().getPageNumber() + 1;
+                    return next < PAGES ? new HeapPageId(hf.getId(), next) : null;
+                }));
+        for (int i = 0; i < 200 && cached.get() < 10; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, cached.get());
+        assertEquals(10, hf.reads.readAheads());
+
+        String me = Thread.currentThread().getName();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(0, hf.reads.get(me));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A sequential scan of a HeapFile reads most of its pages ahead.
+     */
+    @Test public void heapFileScan() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        String me = Thread.currentThread().getName();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+        // every page is read, and not all of them by the scan
+        assertTrue(hf.reads.get(me) + hf.reads.readAheads() >= PAGES);
+        assertTrue(hf.reads.get(me) < PAGES);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A buffer pool too small to spare a frame does not read ahead.
+     */
+    @Test public void tooSmall() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        assertFalse(bp.readAhead(new HeapPageId(hf.getId(), 0), 10, p -> null));
+        bp.setReadAheadPages(0);
+        assertEquals(0, bp.getReadAheadPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadAheadTest.class);
+    }
+}
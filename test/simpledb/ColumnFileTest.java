@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.ColumnScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+            new String[]{"sorted", "category", "nearby", "random"});
+
+    private List<Tuple> rows;
+    private File f;
+
+    /**
+     * Write a ColumnFile whose columns each suit a different encoding.
+     */
+    @Before public void writeFile() throws Exception {
+        Random random = new Random(42);
+        rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i / 1000));
+            t.setField(1, new StringField("category " + (i % 3), Type.STRING_LEN));
+            t.setField(2, new IntField(1000000 + i % 100));
+            t.setField(3, new IntField(random.nextInt()));
+            rows.add(t);
+        }
+        f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        ColumnFile.write(f, TD, rows.iterator());
+    }
+
+    private static List<Tuple> scan(DbFileIterator it) throws Exception {
+        List<Tuple> res = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            res.add(it.next());
+        }
+        it.close();
+        return res;
+    }
+
+    /**
+     * Every page gets the encoding that suits its column, and a scan returns
+     * the rows as they were written
+     */
+    @Test public void writeAndScan() throws Exception {
+        ColumnFile cf = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertEquals(ROWS, cf.numRows());
+
+        ColumnEncoding[] expected = {ColumnEncoding.RLE, ColumnEncoding.DICTIONARY,
+                ColumnEncoding.FRAME_OF_REFERENCE, ColumnEncoding.PLAIN};
+        int pgNo = 1;
+        for (int c = 0; c < TD.numFields(); c++) {
+            for (int p = 0; p < cf.numPages(c); p++, pgNo++) {
+                ColumnPage page = (ColumnPage) cf.readPage(new HeapPageId(cf.getId(), pgNo));
+                assertEquals(expected[c], page.getEncoding());
+            }
+        }
+        assertEquals(cf.numPages(), pgNo);
+        // 10000 random ints need 10 pages; the other columns compress well
+        assertEquals(1, cf.numPages(0));
+        assertTrue(cf.numPages(3) >= 10);
+        assertTrue(cf.numPages(1) <= 2);
+        assertTrue(cf.numPages(2) <= 3);
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> scanned = scan(cf.iterator(tid));
+        assertEquals(ROWS, scanned.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(TestUtil.compareTuples(rows.get(i), scanned.get(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            cf.insertTuple(tid, rows.get(0));
+            fail("ColumnFile should be read-only");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A projected scan only reads the pages of the projected columns
+     */
+    @Test public void projectedScan() throws Exception {
+        TestUtil.CountingColumnFile cf = new TestUtil.CountingColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        List<Tuple> scanned = scan(cf.iterator(tid, new int[]{2, 0}));
+        assertEquals(ROWS, scanned.size());
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = scanned.get(i);
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals(rows.get(i).getField(2), t.getField(0));
+            assertEquals(rows.get(i).getField(0), t.getField(1));
+        }
+        assertEquals(cf.numPages(0) + cf.numPages(2), cf.reads.get());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * ColumnScan returns the same columns from a ColumnFile and a HeapFile
+     * of the same rows, and feeds other operators
+     */
+    @Test public void columnScan() throws Exception {
+        ColumnFile cf = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, "columns");
+        File heap = File.createTempFile("heap", ".dat");
+        HeapFile.deleteOnExit(heap);
+        HeapFile hf = new HeapFile(heap, TD);
+        Database.getCatalog().addTable(hf, "heap");
+        for (int i = 0; i < ROWS; i += 500) {
+            TransactionId insert = new TransactionId();
+            for (Tuple t : rows.subList(i, i + 500)) {
+                Database.getBufferPool().insertTuple(insert, hf.getId(), t);
+            }
+            Database.getBufferPool().transactionComplete(insert);
+        }
+        TransactionId tid = new TransactionId();
+
+        int[] columns = {3, 1};
+        ColumnScan fromColumns = new ColumnScan(tid, cf.getId(), "c", columns);
+        ColumnScan fromHeap = new ColumnScan(tid, hf.getId(), "h", columns);
+        assertEquals("c.random", fromColumns.getTupleDesc().getFieldName(0));
+        assertEquals(Type.STRING_TYPE, fromHeap.getTupleDesc().getFieldType(1));
+        Set<String> expected = new HashSet<>();
+        fromHeap.open();
+        while (fromHeap.hasNext()) {
+            Tuple t = fromHeap.next();
+            expected.add(t.getField(0) + " " + t.getField(1));
+        }
+        fromHeap.close();
+        Set<String> actual = new HashSet<>();
+        fromColumns.open();
+        while (fromColumns.hasNext()) {
+            Tuple t = fromColumns.next();
+            actual.add(t.getField(0) + " " + t.getField(1));
+        }
+        fromColumns.close();
+        assertEquals(expected, actual);
+
+        Aggregate sum = new Aggregate(new ColumnScan(tid, cf.getId(), "c", new int[]{2}),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        assertEquals(new IntField(ROWS * 1000000 + ROWS / 100 * 4950), sum.next().getField(0));
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With small pages every column fills its buffer many times while the
+     * rows are written, and the file still reads back the rows in order
+     */
+    @Test public void writeInChunks() throws Exception {
+        BufferPool.setPageSize(256);
+        try {
+            File small = File.createTempFile("columns", ".dat");
+            small.deleteOnExit();
+            ColumnFile.write(small, TD, rows.iterator());
+            ColumnFile cf = new ColumnFile(small, TD);
+            Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+            assertEquals(ROWS, cf.numRows());
+
+            TransactionId tid = new TransactionId();
+            List<Tuple> scanned = scan(cf.iterator(tid));
+            assertEquals(ROWS, scanned.size());
+            for (int i = 0; i < ROWS; i++) {
+                assertTrue(TestUtil.compareTuples(rows.get(i), scanned.get(i)));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
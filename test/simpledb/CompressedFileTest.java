@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedFileTest extends SimpleDbTestBase {
+    private File f;
+
+    @Before public void createFile() throws Exception {
+        f = File.createTempFile("compressed", ".dat");
+        f.delete();
+        HeapFile.deleteOnExit(f);
+    }
+
+    private static byte[] repetitive(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((i / 16 + seed) % 7);
+        }
+        return data;
+    }
+
+    /**
+     * Pages of all kinds survive a round trip through a compressed channel,
+     * also across block boundaries and after reopening the file
+     */
+    @Test public void readWrite() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        CompressedFileChannel channel = new CompressedFileChannel(f, pageSize, 0);
+        byte[] random = new byte[pageSize];
+        new Random(1).nextBytes(random);
+        byte[] same = repetitive(pageSize, 0);
+        channel.write(random, 0);
+        channel.write(same, pageSize);
+        // page 2 is never written and reads as zeros
+        channel.write(same, 3L * pageSize);
+        assertEquals(4L * pageSize, channel.size());
+
+        // a write across two blocks
+        byte[] patch = repetitive(100, 3);
+        channel.write(patch, 2L * pageSize - 50);
+        System.arraycopy(patch, 0, same, pageSize - 50, 50);
+        byte[] zeros = new byte[pageSize];
+        System.arraycopy(patch, 50, zeros, 0, 50);
+
+        // random data is stored as is, the rest takes a few sectors; block 1
+        // was rewritten to new sectors and its old one is free
+        assertTrue(channel.physicalSize() < pageSize + 5 * CompressedFileChannel.SECTOR_SIZE);
+
+        CompressedFileChannel reopened = new CompressedFileChannel(f, pageSize, 0);
+        byte[] data = new byte[pageSize];
+        assertEquals(pageSize, reopened.read(data, 0));
+        assertArrayEquals(random, data);
+        reopened.read(data, pageSize);
+        assertArrayEquals(same, data);
+        reopened.read(data, 2L * pageSize);
+        assertArrayEquals(zeros, data);
+        reopened.read(data, 3L * pageSize);
+        assertArrayEquals(repetitive(pageSize, 0), data);
+        assertEquals(0, reopened.read(data, 4L * pageSize));
+    }
+
+    /**
+     * A block is written to new sectors before the page map points to it,
+     * so a page map record torn by a crash leaves the block as it was, and
+     * records are folded into the page map once there are many of them
+     */
+    @Test public void tornMapRecord() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        File mapFile = CompressedFileChannel.mapFileFor(f);
+        CompressedFileChannel channel = new CompressedFileChannel(f, pageSize, 0);
+        channel.write(repetitive(pageSize, 1), 0);
+        long before = mapFile.length();
+        channel.write(repetitive(pageSize, 2), 0);
+        channel.close();
+
+        // cut the last record in half
+        long recordSize = mapFile.length() - before;
+        try (RandomAccessFile raf = new RandomAccessFile(mapFile, "rw")) {
+            raf.setLength(before + recordSize / 2);
+        }
+        CompressedFileChannel reopened = new CompressedFileChannel(f, pageSize, 0);
+        byte[] data = new byte[pageSize];
+        reopened.read(data, 0);
+        assertArrayEquals(repetitive(pageSize, 1), data);
+
+        // the torn record is overwritten by the next one
+        reopened.write(repetitive(pageSize, 3), pageSize);
+        for (int i = 0; i < 200; i++) {
+            reopened.write(repetitive(pageSize, i), 0);
+        }
+        assertTrue(mapFile.length() < before + 100 * recordSize);
+        reopened = new CompressedFileChannel(f, pageSize, 0);
+        reopened.read(data, 0);
+        assertArrayEquals(repetitive(pageSize, 199), data);
+        reopened.read(data, pageSize);
+        assertArrayEquals(repetitive(pageSize, 3), data);
+        assertEquals(2L * pageSize, reopened.size());
+    }
+
+    /**
+     * Blocks evicted from memory are read from the compressed tier of the
+     * buffer pool, until the tier is turned off
+     */
+    @Test public void compressedTier() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        CompressedFileChannel channel = new CompressedFileChannel(f, pageSize, 0);
+        for (int i = 0; i < 20; i++) {
+            channel.write(repetitive(pageSize, i), (long) i * pageSize);
+        }
+        CompressedFileChannel reopened = new CompressedFileChannel(f, pageSize, 0);
+        byte[] data = new byte[pageSize];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 20; i++) {
+                reopened.read(data, (long) i * pageSize);
+                assertArrayEquals(repetitive(pageSize, i), data);
+            }
+            assertEquals(20, reopened.getBlockReads());
+        }
+
+        Database.getBufferPool().setCompressedCacheSize(0);
+        reopened.read(data, 0);
+        assertEquals(21, reopened.getBlockReads());
+    }
+
+    /**
+     * A compressed HeapFile takes a fraction of the space and reads back the
+     * same tuples
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // two constant columns, like the repetitive tables compression is for
+        Map<Integer, Integer> constant = new HashMap<>();
+        constant.put(1, 5);
+        constant.put(2, 7);
+        HeapFile raw = SystemTestUtil.createRandomHeapFile(3, 3000, 10, constant, tuples);
+        HeapFile hf = new HeapFile(f, raw.getTupleDesc(), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = raw.iterator(reader);
+        it.open();
+        while (it.hasNext()) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 100 && it.hasNext(); i++) {
+                Database.getBufferPool().insertTuple(tid, hf.getId(), it.next());
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        assertEquals(raw.numPages(), hf.numPages());
+        assertTrue(f.length() * 2 < (long) raw.numPages() * BufferPool.getPageSize());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, raw.getTupleDesc(), false, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertTrue(reopened.isCompressed());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A compressed BTreeFile finds the tuples inserted into it
+     */
+    @Test public void compressedBTreeFile() throws Exception {
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        for (int i = 0; i < 5000; i += 250) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < i + 250; j++) {
+                Database.getBufferPool().insertTuple(tid, bf.getId(), Utility.getHeapTuple(new int[]{j % 500, j}));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertTrue(bf.numPages() > 2);
+        long logical = BTreeRootPtrPage.getPageSize() + (long) bf.numPages() * BufferPool.getPageSize();
+        assertTrue(f.length() < logical);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BTreeFile reopened = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = reopened.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(42)));
+        it.open();
+        List<Integer> found = new ArrayList<>();
+        while (it.hasNext()) {
+            found.add(((IntField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        found.sort(null);
+        List<Integer> expected = new ArrayList<>();
+        for (int j = 42; j < 5000; j += 500) {
+            expected.add(j);
+        }
+        assertEquals(expected, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedFileTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.storage.DbFileChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+    private File file;
+    private DbFileChannel channel;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("channel", "dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    @After public void tearDown() throws Exception {
+        channel.close();
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Unit test for DbFileChannel.write() and DbFileChannel.read()
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        channel.write(bytes(16, 1), 0);
+        channel.write(bytes(16, 2), 16);
+        channel.write(bytes(4, 3), 8);
+        assertEquals(32, channel.size());
+        assertEquals(32, file.length());
+
+        byte[] data = new byte[8];
+        assertEquals(8, channel.read(data, 8));
+        assertArrayEquals(new byte[]{3, 3, 3, 3, 1, 1, 1, 1}, data);
+        assertEquals(8, channel.read(data, 24));
+        assertArrayEquals(bytes(8, 2), data);
+    }
+
+    /**
+     * Unit test for DbFileChannel.read() at the end of the file
+     */
+    @Test public void readPastEnd() throws Exception {
+        channel.write(bytes(8, 1), 0);
+        byte[] data = new byte[16];
+        assertEquals(8, channel.read(data, 0));
+        assertArrayEquals(bytes(8, 0), Arrays.copyOfRange(data, 8, 16));
+        assertEquals(0, channel.read(data, 64));
+    }
+
+    /**
+     * Unit test for DbFileChannel.mapPage()
+     */
+    @Test public void mapPage() throws Exception {
+        channel.write(bytes(8, 1), 0);
+        channel.write(bytes(8, 2), 8);
+        ByteBuffer page = channel.mapPage(8, 8);
+        assertEquals(8, page.remaining());
+        assertEquals(2, page.get(0));
+        assertNull(channel.mapPage(16, 8));
+
+        // writes are visible in the mapping, and the file is mapped
+        // again when it grows
+        channel.write(bytes(8, 3), 8);
+        channel.write(bytes(8, 4), 16);
+        assertEquals(3, channel.mapPage(8, 8).get(0));
+        assertEquals(4, channel.mapPage(16, 8).get(7));
+    }
+
+    /**
+     * An interrupted reader closes the channel; other callers reopen it.
+     */
+    @Test public void reopenAfterInterrupt() throws Exception {
+        channel.write(bytes(8, 1), 0);
+        Thread.currentThread().interrupt();
+        try {
+            channel.read(new byte[8], 0);
+            fail("expected ClosedByInterruptException");
+        } catch (ClosedByInterruptException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+
+        byte[] data = new byte[8];
+        assertEquals(8, channel.read(data, 0));
+        assertArrayEquals(bytes(8, 1), data);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class HashJoinSpillTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private static Map<List<Integer>, Integer> rows(OpIterator it) throws Exception {
+        Map<List<Integer>, Integer> res = new HashMap<>();
+        while (it.hasNext()) {
+            res.merge(SystemTestUtil.tupleToList(it.next()), 1, Integer::sum);
+        }
+        return res;
+    }
+
+    private Map<List<Integer>, Integer> nestedLoops(HeapFile l, HeapFile r) throws Exception {
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r"));
+        join.open();
+        Map<List<Integer>, Integer> res = rows(join);
+        join.close();
+        return res;
+    }
+
+    /**
+     * A join whose build side does not fit in memory spills partitions to
+     * disk and gives the same tuples as a join that fits, also after a rewind
+     */
+    @Test public void spill() throws Exception {
+        Map<List<Integer>, Integer> expected = nestedLoops(left, right);
+        assertFalse(expected.isEmpty());
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        join.setMemoryBudget(300);
+        join.open();
+        assertEquals(expected, rows(join));
+        assertTrue(join.getSpilledPartitions() > 0);
+        join.rewind();
+        assertEquals(expected, rows(join));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Keys repeated more often than the memory budget allows are joined by
+     * parts of their partition
+     */
+    @Test public void skew() throws Exception {
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, 1000, 3, null, new ArrayList<>());
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, 200, 3, null, new ArrayList<>());
+        Map<List<Integer>, Integer> expected = nestedLoops(l, r);
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r"));
+        join.setMemoryBudget(50);
+        join.open();
+        assertEquals(expected, rows(join));
+        assertTrue(join.getSpilledPartitions() > 0);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinSpillTest.class);
+    }
+}
@@ -125,6 +125,43 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPage() with HeapFile.setMemoryMapped()
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        hf.setMemoryMapped(true);
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+
+        assertEquals(484, mapped.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), mapped.getPageData());
+        assertArrayEquals(page.getPageData(), mapped.getBeforeImage().getPageData());
+
+        // pages written or appended after the file was mapped are visible
+        mapped.deleteTuple(mapped.iterator().next());
+        hf.writePage(mapped);
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        assertEquals(504, ((HeapPage) hf.readPage(next)).getNumEmptySlots());
+
+        // the before image is the page as it was read, even after the file changes
+        HeapPage reread = (HeapPage) hf.readPage(pid);
+        hf.writePage(page);
+        assertEquals(485, reread.getBeforeImage().getNumEmptySlots());
+    }
+
+    @Test
+    public void testIteratorMemoryMapped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, tuples);
+        twoPageFile.setMemoryMapped(true);
+        SystemTestUtil.matchTuples(twoPageFile, tid, tuples);
+    }
+
     /**
      * JUnit suite target
      */
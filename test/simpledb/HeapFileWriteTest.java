@@ -7,12 +7,14 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +52,66 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free-space map used by HeapFile.insertTuple()
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        // fill three pages
+        for (int i = 0; i < 3 * 504; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // reopen the file: the full pages are neither read nor locked again
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TestUtil.CountingHeapFile reopened =
+                new TestUtil.CountingHeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        tid = new TransactionId();
+        List<Page> pages = reopened.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, pages.get(0).getId().getPageNumber());
+        assertEquals(0, reopened.reads.get());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(reopened.getId(), 1)));
+
+        // a delete makes room on a full page again
+        Tuple t = firstTuple(reopened, 1);
+        Database.getBufferPool().deleteTuple(tid, t);
+        pages = reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(1, pages.get(0).getId().getPageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.numPages() with preallocated extents
+     */
+    @Test public void numPagesWithExtents() throws Exception {
+        for (int i = 0; i < 2 * 504 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        // the file holds a whole extent, most of it empty pages
+        assertEquals(HeapFile.EXTENT_SIZE, empty.getFile().length());
+
+        // the page count survives reopening the file
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(3, reopened.numPages());
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(2 * 504 + 1, count);
+    }
+
+    private Tuple firstTuple(HeapFile f, int pgNo) throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+        return page.iterator().next();
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
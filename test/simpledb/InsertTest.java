@@ -3,13 +3,23 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Delete;
 import simpledb.execution.Insert;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 /**
@@ -61,6 +71,40 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * INSERT ... SELECT * copies the rows: a following DELETE of the source
+   * table deletes its own rows, not the inserted ones
+   */
+  @Test public void insertSelectThenDelete() throws Exception {
+    HeapFile source = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    Insert insert = new Insert(tid, new Project(Arrays.asList(0, 1),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new SeqScan(tid, source.getId())), empty.getId());
+    insert.open();
+    assertEquals(new IntField(10), insert.next().getField(0));
+    insert.close();
+
+    Delete delete = new Delete(tid, new SeqScan(tid, source.getId()));
+    delete.open();
+    assertEquals(new IntField(10), delete.next().getField(0));
+    delete.close();
+
+    assertEquals(0, count(source));
+    assertEquals(10, count(empty));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private int count(HeapFile f) throws Exception {
+    SeqScan scan = new SeqScan(tid, f.getId());
+    scan.open();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.close();
+    return n;
+  }
+
   /**
    * JUnit suite target
    */
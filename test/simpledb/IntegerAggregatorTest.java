@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.NoSuchElementException;
 
@@ -182,6 +183,89 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Many groups, including negative and zero keys, each get their own
+   * aggregate
+   */
+  @Test public void manyGroups() throws Exception {
+    final int groups = 1000;
+    int[] input = new int[groups * 3 * width1];
+    int[] expected = new int[groups * width1];
+    for (int i = 0; i < groups * 3; i++) {
+      int key = (i % groups) * 7919 - 500 * 7919;
+      input[i * 2] = key;
+      input[i * 2 + 1] = i;
+      expected[(i % groups) * 2] = key;
+      expected[(i % groups) * 2 + 1] += i;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, input);
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    scan.open();
+    while (scan.hasNext()) {
+      agg.mergeTupleIntoGroup(scan.next());
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+  }
+
+  /**
+   * Without grouping, COUNT over an empty input is a single 0, while the
+   * aggregates that have no value for it give no row; with grouping there
+   * are no groups
+   */
+  @Test public void emptyInput() throws Exception {
+    OpIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.COUNT).iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+
+    it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM_COUNT).iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 0, 0 }), it);
+
+    it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM).iterator();
+    it.open();
+    assertFalse(it.hasNext());
+
+    it = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT).iterator();
+    it.open();
+    assertFalse(it.hasNext());
+  }
+
+  /**
+   * SUM_COUNT gives the sum and count of each group, and SC_AVG averages
+   * such partial results into the average over all of them
+   */
+  @Test public void sumCount() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext()) {
+      agg.mergeTupleIntoGroup(scan1.next());
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3,
+                    3, 12, 3,
+                    5, 7, 1 }), it);
+
+    // two partial results of group 1 and one of group 3
+    OpIterator partials = TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3,
+                    1, 8, 1,
+                    3, 0, 0 });
+    agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    partials.open();
+    while (partials.hasNext()) {
+      agg.mergeTupleIntoGroup(partials.next());
+    }
+    it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new int[] { 1, 5,
+                    3, 0 }), it);
+  }
+
   /**
    * JUnit suite target
    */
@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -11,6 +12,7 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -193,6 +195,43 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming blocking locks.
+   * A transaction waiting on a conflicting lock should not be aborted, and
+   * should be granted the lock once the holder completes.
+   */
+  @Test public void blockedThenGranted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertEquals(false, t.acquired());
+    assertNull(t.getError());
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT * 10);
+    assertEquals(true, t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming blocking locks.
+   * A lock held by a transaction that never completes does not block other
+   * transactions forever: they are aborted once the lock timeout expires.
+   */
+  @Test public void abandonedHolderTimesOut() throws Exception {
+    bp.setLockTimeout(TIMEOUT * 2);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+    t.join(TIMEOUT * 20);
+    assertEquals(false, t.isAlive());
+    assertEquals(false, t.acquired());
+    assertTrue(t.getError() instanceof TransactionAbortedException);
+  }
+
   /**
    * JUnit suite target
    */
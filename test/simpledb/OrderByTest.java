@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private List<Tuple> sort(boolean asc, int budget) throws Exception {
+        OrderBy ob = new OrderBy(0, asc, new SeqScan(tid, hf.getId(), "t"));
+        ob.setMemoryBudget(budget);
+        List<Tuple> res = TestUtil.rows(ob);
+        if (budget < ROWS) {
+            assertTrue(ob.getSpilledRuns() > 0);
+        } else {
+            assertEquals(0, ob.getSpilledRuns());
+        }
+        return res;
+    }
+
+    /**
+     * A sort that does not fit in memory merges sorted runs from disk, and
+     * gives the same tuples in the same order as a sort in memory, ties
+     * included
+     */
+    @Test public void external() throws Exception {
+        List<Tuple> expected = sort(true, ROWS);
+        assertEquals(ROWS, expected.size());
+        for (int i = 1; i < expected.size(); i++) {
+            assertTrue(((IntField) expected.get(i - 1).getField(0)).getValue()
+                    <= ((IntField) expected.get(i).getField(0)).getValue());
+        }
+        assertEquals(expected, sort(true, 1000));
+        // more runs than are merged at once
+        assertEquals(expected, sort(true, 50));
+        assertEquals(sort(false, ROWS), sort(false, 300));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With many more runs than are merged at once, a merge pass writes
+     * every tuple once, instead of merging the first runs over and over
+     */
+    @Test public void mergePasses() throws Exception {
+        OrderBy ob = new OrderBy(0, true, new SeqScan(tid, hf.getId(), "t"));
+        ob.setMemoryBudget(2);
+        List<Tuple> found = TestUtil.rows(ob);
+        // all but the last run, which stays in memory, are written once and
+        // merged in a single pass
+        assertEquals(2L * (ROWS - 2), ob.getSpilledTuples());
+        assertEquals(sort(true, ROWS), found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Rewinding an external sort reads the merged runs again
+     */
+    @Test public void rewind() throws Exception {
+        OrderBy ob = new OrderBy(1, false, new SeqScan(tid, hf.getId(), "t"));
+        ob.setMemoryBudget(700);
+        ob.open();
+        List<Tuple> first = TestUtil.drain(ob);
+        assertEquals(ROWS, first.size());
+        ob.rewind();
+        assertEquals(first, TestUtil.drain(ob));
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PushdownTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile hf;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples, "c");
+    }
+
+    /**
+     * @return the rows with 10 <= c0 < 40 and c1 > 50, as (c2, c0)
+     */
+    private List<List<Integer>> expected() {
+        List<List<Integer>> res = new ArrayList<>();
+        for (List<Integer> row : tuples) {
+            if (row.get(0) >= 10 && row.get(0) < 40 && row.get(1) > 50) {
+                res.add(Arrays.asList(row.get(2), row.get(0)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * A scan with predicates and a projection only returns the projected
+     * fields of the matching tuples, with their RecordIds
+     */
+    @Test public void scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", predicates, new int[]{2, 0});
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c2", td.getFieldName(0));
+        assertEquals("t.c0", td.getFieldName(1));
+
+        List<List<Integer>> found = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertNotNull(t.getRecordId());
+            found.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        List<List<Integer>> expected = expected();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), found.size());
+        assertTrue(found.containsAll(expected));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The filters of a query run in its scan, and the scan only returns the
+     * fields the query uses
+     */
+    @Test public void plan() throws Exception {
+        String name = Database.getCatalog().getTableName(hf.getId());
+        TableStats.setTableStats(name, new TableStats(hf.getId(), 1));
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(name, TableStats.getTableStats(name));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, "10");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "40");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "50");
+        lp.addProjectField("t.c2", null);
+        lp.addProjectField("t.c0", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        OpIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof SeqScan);
+        SeqScan scan = (SeqScan) child;
+        assertEquals(3, scan.getPredicates().size());
+        assertArrayEquals(new int[]{0, 2}, scan.getFields());
+
+        List<List<Integer>> found = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext()) {
+            found.add(SystemTestUtil.tupleToList(plan.next()));
+        }
+        plan.close();
+        List<List<Integer>> expected = expected();
+        assertEquals(expected.size(), found.size());
+        assertTrue(found.containsAll(expected));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PushdownTest.class);
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> tuples(TuplePage page) {
+        List<Tuple> res = new ArrayList<>();
+        page.iterator().forEachRemaining(res::add);
+        return res;
+    }
+
+    private static void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+            assertEquals(expected.get(i).getRecordId(), actual.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple(): short strings take only the
+     * space they need
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertTrue(tuples(page).isEmpty());
+        int count = 0;
+        while (page.hasRoomFor(tuple(count, "row " + count))) {
+            page.insertTuple(tuple(count, "row " + count));
+            count++;
+        }
+        // a HeapPage holds 30 of these tuples
+        assertTrue(count > 4 * 30);
+        assertEquals(count, page.getNumTuples());
+        try {
+            page.insertTuple(tuple(count, "row " + count));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the tuples survive serialization
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertSameTuples(tuples(page), tuples(copy));
+        assertEquals("row 7", ((StringField) tuples(copy).get(7).getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple(): deleted space is reused by
+     * longer tuples, and the remaining tuples keep their RecordIds
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        while (page.hasRoomFor(tuple(0, "short"))) {
+            page.insertTuple(tuple(0, "short"));
+        }
+        List<Tuple> all = tuples(page);
+        for (int i = 0; i < all.size(); i += 2) {
+            page.deleteTuple(all.get(i));
+        }
+        try {
+            page.deleteTuple(all.get(0));
+            fail("tuple was already deleted");
+        } catch (DbException e) {
+            // expected
+        }
+        assertFalse(page.isFull());
+
+        // fits only once the space of the deleted tuples is put together
+        String longer = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        Tuple big = tuple(1, longer);
+        assertTrue(page.hasRoomFor(big));
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        List<Tuple> left = tuples(copy);
+        assertTrue(TestUtil.compareTuples(big, left.get(0)));
+        Iterator<Tuple> it = left.subList(1, left.size()).iterator();
+        for (int i = 1; i < all.size(); i += 2) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(all.get(i), t));
+            assertEquals(all.get(i).getRecordId(), t.getRecordId());
+        }
+    }
+
+    /**
+     * A HeapFile of SlottedPages stores more rows per page
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFile hf = new HeapFile(f, TD, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "value " + i));
+        }
+        // 1000 rows of HeapPages would take 34 pages
+        assertTrue(hf.numPages() <= 8);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("value " + i, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A tuple larger than a page is rejected before the file grows
+     */
+    @Test public void tupleLargerThanPage() throws Exception {
+        BufferPool.setPageSize(128);
+        try {
+            File f = File.createTempFile("slotted", ".dat");
+            HeapFile.deleteOnExit(f);
+            HeapFile hf = new HeapFile(f, TD, true);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            TransactionId tid = new TransactionId();
+            StringBuilder s = new StringBuilder();
+            while (s.length() < 120) {
+                s.append('x');
+            }
+            try {
+                Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1, s.toString()));
+                fail("expected a DbException for a tuple larger than a page");
+            } catch (DbException e) {
+                // expected
+            }
+            assertEquals(0, hf.numPages());
+            assertEquals(0, f.length());
+
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(2, "short"));
+            assertEquals(1, hf.numPages());
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -10,14 +10,17 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -37,6 +40,31 @@ public class TableStatsTest extends SimpleDbTestBase {
 		this.tableId = Database.getCatalog().getTableId(tableName);		
 	}
 	
+	/**
+	 * Statistics can be computed on a table larger than the buffer pool, any
+	 * number of times: the scans release their pages and locks
+	 */
+	@Test public void largerThanBufferPool() throws Exception {
+		final int pages = 30;
+		Database.resetBufferPool(8);
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992*pages, 32, null, new ArrayList<>());
+		Assert.assertEquals(pages, hf.numPages());
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		for (int i = 0; i < 3; i++) {
+			TableStats s = new TableStats(hf.getId(), IO_COST);
+			Assert.assertEquals(992*pages, s.totalTuples());
+			Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+		}
+		for (int i = 0; i < pages; i++) {
+			Assert.assertEquals(0, Database.getBufferPool().getPinCount(new HeapPageId(hf.getId(), i)));
+		}
+		// no transaction of the statistics still holds a lock
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
 	private double[] getRandomTableScanCosts(int[] pageNums, int[] ioCosts) throws IOException {
 		double[] ret = new double[ioCosts.length];
 		for(int i = 0; i < ioCosts.length; ++i) {
@@ -151,6 +151,31 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the tuples the open OpIterator has left, in order
+     */
+    public static List<Tuple> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<Tuple> res = new ArrayList<>();
+        while (it.hasNext()) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    /**
+     * Open the OpIterator, read all its tuples and close it.
+     *
+     * @return the tuples, in order
+     */
+    public static List<Tuple> rows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        List<Tuple> res = drain(it);
+        it.close();
+        return res;
+    }
+
     /**
      * Verifies that the OpIterator has been exhausted of all elements.
      */
@@ -241,6 +266,81 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * Pages read from disk by a counting DbFile, by the thread that read
+     * them.
+     */
+    public static class PageReads {
+        private final Map<String, Integer> reads = new HashMap<>();
+
+        synchronized void add() {
+            reads.merge(Thread.currentThread().getName(), 1, Integer::sum);
+        }
+
+        /** @return the pages read by all threads */
+        public synchronized int get() {
+            int n = 0;
+            for (int r : reads.values()) {
+                n += r;
+            }
+            return n;
+        }
+
+        /** @return the pages read by the named thread */
+        public synchronized int get(String thread) {
+            return reads.getOrDefault(thread, 0);
+        }
+
+        /** @return the pages read by the read-ahead threads of the BufferPool */
+        public synchronized int readAheads() {
+            int n = 0;
+            for (Map.Entry<String, Integer> e : reads.entrySet()) {
+                if (e.getKey().startsWith("read-ahead")) {
+                    n += e.getValue();
+                }
+            }
+            return n;
+        }
+
+        public synchronized void reset() {
+            reads.clear();
+        }
+    }
+
+    /**
+     * HeapFile that counts the pages it reads from disk.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        public final PageReads reads = new PageReads();
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.add();
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * ColumnFile that counts the pages it reads from disk.
+     */
+    public static class CountingColumnFile extends ColumnFile {
+        public final PageReads reads = new PageReads();
+
+        public CountingColumnFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.add();
+            return super.readPage(pid);
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
@@ -377,7 +477,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
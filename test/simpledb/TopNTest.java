@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class TopNTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 200, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(hf, "TN");
+        TableStats.setTableStats("TN", new TableStats(hf.getId(), 1));
+        tid = new TransactionId();
+    }
+
+    private List<Tuple> sorted(boolean asc) throws Exception {
+        return TestUtil.rows(new OrderBy(0, asc, new SeqScan(tid, hf.getId(), "t")));
+    }
+
+    private List<Tuple> topN(boolean asc, int n) throws Exception {
+        return TestUtil.rows(new TopN(0, asc, n, new SeqScan(tid, hf.getId(), "t")));
+    }
+
+    /**
+     * TopN returns the first tuples of the same ordering as OrderBy, ties
+     * included
+     */
+    @Test public void topN() throws Exception {
+        List<Tuple> asc = sorted(true);
+        List<Tuple> desc = sorted(false);
+        assertEquals(asc.subList(0, 100), topN(true, 100));
+        assertEquals(desc.subList(0, 37), topN(false, 37));
+        assertEquals(asc, topN(true, ROWS + 10));
+        assertTrue(topN(true, 0).isEmpty());
+
+        TopN top = new TopN(0, true, 10, new SeqScan(tid, hf.getId(), "t"));
+        top.open();
+        while (top.hasNext()) {
+            top.next();
+        }
+        top.rewind();
+        assertEquals(asc.get(0), top.next());
+        top.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A LIMIT clause with an ORDER BY is planned as a TopN, and without one
+     * as a Limit
+     */
+    @Test public void limitClause() throws Exception {
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT t.c0, t.c1 FROM TN t ORDER BY t.c0 DESC LIMIT 25;");
+        assertEquals(25, lp.getLimit());
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        List<Tuple> found = TestUtil.rows(plan);
+        List<Tuple> expected = sorted(false).subList(0, 25);
+        assertEquals(25, found.size());
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(SystemTestUtil.tupleToList(expected.get(i)), SystemTestUtil.tupleToList(found.get(i)));
+        }
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM TN t WHERE t.c1 > 10 limit 7;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        assertEquals(7, TestUtil.rows(plan).size());
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM TN t;");
+        assertEquals(-1, lp.getLimit());
+        try {
+            p.generateLogicalPlan(tid, "SELECT * FROM TN t LIMIT ten;");
+            fail("expected a ParsingException for a LIMIT that is not a number");
+        } catch (ParsingException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int count() throws Exception {
+        TransactionId t = new TransactionId();
+        int n = TestUtil.rows(new SeqScan(t, hf.getId(), "t")).size();
+        Database.getBufferPool().transactionComplete(t);
+        return n;
+    }
+
+    /**
+     * LIMIT is rejected on statements other than queries instead of being
+     * ignored, and is not looked for inside quoted text
+     */
+    @Test public void limitOnlyOnQueries() throws Exception {
+        Parser p = new Parser();
+        p.processNextStatement("delete from TN where TN.c0 < 100 limit 1;");
+        assertEquals(ROWS, count());
+        p.processNextStatement("insert into TN values (1, 2) limit 1;");
+        assertEquals(ROWS, count());
+
+        String quoted = "SELECT * FROM TN t WHERE t.c0 = 'a limit 5';";
+        assertEquals(quoted, p.stripLimit(quoted));
+        assertEquals("SELECT * FROM TN t WHERE t.c0 = 'x;y';",
+                p.stripLimit("SELECT * FROM TN t WHERE t.c0 = 'x;y' LIMIT 3;"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
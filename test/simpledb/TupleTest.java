@@ -59,6 +59,27 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.project() and Tuple.merge()
+     */
+    @Test public void projectAndMerge() {
+        Tuple tup = Utility.getHeapTuple(new int[]{1, 2, 3});
+        int[] fields = {2, 0};
+        Tuple projected = tup.project(tup.getTupleDesc().project(fields), fields);
+        assertEquals(2, projected.getTupleDesc().numFields());
+        assertEquals(new IntField(3), projected.getField(0));
+        assertEquals(new IntField(1), projected.getField(1));
+        assertEquals(tup.getRecordId(), projected.getRecordId());
+
+        Tuple merged = Tuple.merge(TupleDesc.merge(tup.getTupleDesc(), projected.getTupleDesc()),
+                tup, projected);
+        assertEquals(5, merged.getTupleDesc().numFields());
+        assertEquals(new IntField(1), merged.getField(0));
+        assertEquals(new IntField(3), merged.getField(2));
+        assertEquals(new IntField(3), merged.getField(3));
+        assertEquals(new IntField(1), merged.getField(4));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    private File f;
+
+    /**
+     * Write a table whose first column grows with the row number, like a
+     * timestamp.
+     */
+    @Before public void writeFile() throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> row = new ArrayList<>();
+            row.add(i);
+            row.add(i % 7);
+            rows.add(row);
+        }
+        f = File.createTempFile("zones", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        Database.getBufferPool().setReadAheadPages(0);
+    }
+
+    private TestUtil.CountingHeapFile open() {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getBufferPool().setReadAheadPages(0);
+        TestUtil.CountingHeapFile hf = new TestUtil.CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private static List<Integer> scan(TransactionId tid, HeapFile hf, Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", p);
+        List<Integer> res = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            res.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        scan.close();
+        return res;
+    }
+
+    /**
+     * The first filtered scan reads every page and builds the zone map; the
+     * following ones only read the pages that can match
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate recent = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 500));
+        TestUtil.CountingHeapFile hf = open();
+        TransactionId tid = new TransactionId();
+        assertEquals(499, scan(tid, hf, recent).size());
+        assertEquals(hf.numPages(), hf.reads.get());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the zone map is on disk and used by a new HeapFile
+        hf = open();
+        tid = new TransactionId();
+        List<Integer> found = scan(tid, hf, recent);
+        assertEquals(499, found.size());
+        assertEquals(ROWS - 499, (int) found.get(0));
+        assertTrue(hf.reads.get() <= 2);
+
+        hf.reads.reset();
+        assertEquals(1, scan(tid, hf, new Predicate(0, Predicate.Op.EQUALS, new IntField(1234))).size());
+        assertEquals(1, hf.reads.get());
+        hf.reads.reset();
+        assertTrue(scan(tid, hf, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))).isEmpty());
+        assertEquals(0, hf.reads.get());
+
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a predicate on a column out of order reads everything
+        hf = open();
+        tid = new TransactionId();
+        assertEquals(ROWS / 7 + 1, scan(tid, hf, new Predicate(1, Predicate.Op.EQUALS, new IntField(0))).size());
+        assertEquals(hf.numPages(), hf.reads.get());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into a page are found by filtered scans right away,
+     * before the page is written
+     */
+    @Test public void insertWidens() throws Exception {
+        TestUtil.CountingHeapFile hf = open();
+        TransactionId tid = new TransactionId();
+        Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        assertEquals(ROWS, scan(tid, hf, all).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // make room on the first page, then insert a large value there
+        TransactionId writer = new TransactionId();
+        DbFileIterator it = hf.iterator(writer);
+        it.open();
+        Database.getBufferPool().deleteTuple(writer, it.next());
+        it.close();
+        Database.getBufferPool().insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[]{5 * ROWS, 0}));
+        List<Integer> found = scan(writer, hf, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)));
+        assertEquals(1, found.size());
+        assertEquals(5 * ROWS, (int) found.get(0));
+        Database.getBufferPool().transactionComplete(writer);
+
+        hf = open();
+        tid = new TransactionId();
+        assertEquals(1, scan(tid, hf, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS))).size());
+        assertEquals(1, hf.reads.get());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -1,8 +1,10 @@
 package simpledb.systemtest;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 
+import org.junit.After;
 import org.junit.Test;
 
 import simpledb.common.Database;
@@ -21,6 +23,7 @@ import static org.junit.Assert.*;
  * Test logging, aborts, and recovery.
  */
 public class LogTest extends SimpleDbTestBase {
+    File dir;  // 两个表及其free-space map、zone map都放在临时目录中
     File file1;
     File file2;
     HeapFile hf1;
@@ -126,14 +129,30 @@ public class LogTest extends SimpleDbTestBase {
 
         // empty heap files w/ 2 columns.
         // adds to the catalog.
-        file1 = new File("simple1.db");
+        if (dir == null) {
+            dir = Files.createTempDirectory("logtest").toFile();
+        }
+        file1 = new File(dir, "simple1.db");
         file1.delete();
-        file2 = new File("simple2.db");
+        file2 = new File(dir, "simple2.db");
         file2.delete();
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }
 
+    @After public void removeFiles() {
+        if (dir == null) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
     @Test public void PatchTest()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -435,6 +454,78 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestRecoverTwice()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts and flushes but does not commit
+        // T2 inserts and commits
+        // crash, recover, crash again before anything else happens
+        // recovering twice must give the same result
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 40);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        insertRow(hf1, t1, 41);
+
+        doInsert(hf2, 42, 43);
+
+        crash();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 40, false);
+        look(hf1, t, 41, false);
+        look(hf2, t, 42, true);
+        look(hf2, t, 43, true);
+        t.commit();
+    }
+
+    @Test public void TestUpdateRecordSize()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // inserting a row into an existing page logs the changed
+        // bytes of the page, not its before and after images
+        // T1 inserts and flushes twice, then aborts
+        // T2 inserts and commits
+        // crash: both are replayed from the deltas
+
+        File log = new File("log");
+        long before = log.length();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 50);
+        Database.getBufferPool().flushAllPages();
+        insertRow(hf1, t1, 51);
+        Database.getBufferPool().flushAllPages();
+        abort(t1);
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 52);
+        t2.commit();
+        assertTrue(log.length() - before < BufferPool.getPageSize());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 50, false);
+        look(hf1, t, 51, false);
+        look(hf1, t, 52, true);
+        t.commit();
+    }
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
@@ -0,0 +1,200 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the logging, abort and recovery tests of LogTest with NO FORCE
+ * commits, where committed pages reach disk only through the log until
+ * they are written back.
+ */
+public class NoForceLogTest extends LogTest {
+
+    @Override
+    void setup() throws IOException {
+        super.setup();
+        Database.getBufferPool().setForcePolicy(false);
+    }
+
+    @Override
+    void crash() throws IOException {
+        super.crash();
+        Database.getBufferPool().setForcePolicy(false);
+    }
+
+    @Test public void TestCommitDoesNotWritePages()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a NO FORCE commit forces the log once and leaves the data file alone
+        HeapPage before = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        int forces = Database.getLogFile().getTotalForces();
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 3);
+        t.commit();
+        assertEquals(forces + 1, Database.getLogFile().getTotalForces());
+        HeapPage after = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        assertEquals(before.getNumEmptySlots(), after.getNumEmptySlots());
+
+        // crash: the commit must be redone from the log
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestCommitForcedBeforeUnlock()
+            throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a transaction waiting for a page written by T1 only gets it
+        // after the commit record of T1 is on disk
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        int forces = Database.getLogFile().getTotalForces();
+
+        AtomicInteger forcesSeen = new AtomicInteger(-1);
+        TransactionId t2 = new TransactionId();
+        Thread waiter = new Thread(() -> {
+            try {
+                Database.getBufferPool().getPage(t2, pid, Permissions.READ_ONLY);
+                forcesSeen.set(Database.getLogFile().getTotalForces());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        t1.commit();
+        waiter.join();
+        Database.getBufferPool().transactionComplete(t2);
+        assertTrue(forcesSeen.get() > forces);
+    }
+
+    @Test public void TestFuzzyCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits, its pages stay in the buffer pool
+        // checkpoint without writing them
+        // T2 inserts but does not commit
+        // crash
+        // T1 data should be redone from before the checkpoint
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf2, t1, 30);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 31);
+
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        Database.getLogFile().logCheckpoint();
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        insertRow(hf1, t2, 32);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf2, t, 30, true);
+        look(hf1, t, 31, false);
+        look(hf1, t, 32, false);
+        t.commit();
+    }
+
+    @Test public void TestTwoCheckpointsCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits, its pages stay in the buffer pool
+        // two checkpoints, each truncating the log under the pages
+        // crash
+        // T1 data should be redone from the recLSNs of the second checkpoint
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        t1.commit();
+
+        Database.getLogFile().logCheckpoint();
+        Database.getLogFile().logCheckpoint();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestPageWriter()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the page writer writes committed pages in the background
+        HeapPage before = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 3);
+        t.commit();
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+
+        Database.getBufferPool().startPageWriter(10, 16);
+        try {
+            for (int i = 0; i < 100 && !Database.getBufferPool().getDirtyPageTable().isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            Database.getBufferPool().stopPageWriter();
+        }
+        assertTrue(Database.getBufferPool().getDirtyPageTable().isEmpty());
+
+        HeapPage after = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        // rows 2 and 3 were committed without being written
+        assertEquals(before.getNumEmptySlots() - 2, after.getNumEmptySlots());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(NoForceLogTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Delete;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Transactions that dirty more pages than the buffer pool holds, which only
+ * works with the STEAL policy.
+ */
+public class StealTest extends SimpleDbTestBase {
+    private static final int ROWS = 512 * 10;
+
+    private HeapFile createTable(List<List<Integer>> tuples) throws IOException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        Database.resetBufferPool(2).setStealPolicy(true);
+        return f;
+    }
+
+    private int deleteAll(HeapFile f, Transaction t) throws DbException, TransactionAbortedException {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        int count = ((IntField) delete.next().getField(0)).getValue();
+        delete.close();
+        return count;
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().setStealPolicy(false);
+    }
+
+    /** A delete touching every page of a table five times the buffer pool succeeds and commits. */
+    @Test public void testLargeUpdateCommits()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = createTable(null);
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(ROWS, deleteAll(f, t));
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), new ArrayList<>());
+        t.commit();
+    }
+
+    /** Pages written out before the abort are restored from the log. */
+    @Test public void testStolenPagesAreUndone()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = createTable(tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(ROWS, deleteAll(f, t));
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}